@@ -1,22 +1,82 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over one column, are computed in one
+ * pass over the child, grouped by any number of columns.
+ * <p>
+ * Groups are kept in memory up to a budget.  Once there are more groups than
+ * fit, tuples of groups already in memory are still merged, and the rest of
+ * the input is hash-partitioned on the group field into {@link SpillFile}s.
+ * Each partition is then aggregated the same way, with a different hash, up
+ * to {@link #MAX_DEPTH} levels deep.
+ * <p>
+ * With a parallelism above one, an Aggregate directly over a {@link SeqScan}
+ * of a {@link HeapFile} splits the file into page ranges and aggregates them
+ * on a {@link ForkJoinPool}.  Each range is aggregated into a partial
+ * aggregate of its own, and neighbouring partials are combined as the tasks
+ * join, so the groups come out in the same order as from a serial scan.  If
+ * the partials outgrow the memory budget, the child is aggregated serially
+ * instead, spilling as above.
+ * <p>
+ * An Aggregate over a {@link Gather} or a {@link ParallelSeqScan} always
+ * aggregates in parallel, on the Gather's workers: each worker folds the
+ * tuples of its copy of the pipeline into a partial aggregate with
+ * {@link Gather#collect}, without passing them through the Gather's queue.
+ * Since the workers claim morsels in no fixed order, neither do the groups
+ * come out in one.
+ * <p>
+ * A child that is a {@link BatchIterator} is read a batch at a time when
+ * there is one aggregate over an INT field and at most one group-by field:
+ * {@link IntegerAggregator#mergeBatch} then works on the batch's int
+ * vectors.  The aggregate's own output can be read in batches too.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages' worth of groups. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Number of partitions each partitioning pass writes. */
+    public static final int FANOUT = 16;
+
+    /** Number of times groups are partitioned before they are kept anyway. */
+    public static final int MAX_DEPTH = 3;
+
+    // rough cost of a group beyond its group-by value: accumulators and
+    // hash table slots
+    private static final int GROUP_OVERHEAD = 32;
+
+    /** Fewest pages a parallel aggregation hands to one task. */
+    public static final int MIN_TASK_PAGES = 16;
+
     private DbIterator child;
     private int afield;
     private int gfield;
     private Aggregator.Op aop;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
     private DbIterator iter;
     private Aggregator agg;
     private TupleDesc td;
+    private final int maxGroups;
+    // partitions still to aggregate, with their depth
+    private transient LinkedList<SpillFile> partitions;
+    private transient LinkedList<Integer> depths;
+    private boolean spilled;
+    private boolean childOpen;
+    private transient TupleBatch out;
+    private int parallelism = 1;
+    // page ranges the last open aggregated on a fork-join pool
+    private final AtomicInteger parallelTasks = new AtomicInteger();
 
     /**
      * Constructor.
@@ -37,20 +97,117 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	    // some code goes here
+      this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages' worth of groups to keep in memory before
+     *            partitioning the input to disk
+     */
+    public Aggregate(DbIterator child, int afield, int gfield,
+        Aggregator.Op aop, int memoryPages) {
+      this(child, new int[] { afield }, new Aggregator.Op[] { aop },
+          gfield < 0 ? new int[0] : new int[] { gfield }, memoryPages);
+    }
+
+    /**
+     * Constructor for several aggregates over several grouping columns.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     * @param gfields
+     *            The columns over which we are grouping the result; empty
+     *            if there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+        int[] gfields) {
+      this(child, afields, aops, gfields, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages' worth of groups to keep in memory before
+     *            partitioning the input to disk
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+        int[] gfields, int memoryPages) {
+      if (afields.length == 0 || afields.length != aops.length)
+        throw new IllegalArgumentException("need one operator per aggregate field");
       this.child = child;
-      this.afield = afield;
-      this.gfield = gfield;
-      this.aop = aop;
+      this.afields = afields.clone();
+      this.aops = aops.clone();
+      this.gfields = gfields.clone();
+      this.afield = afields[0];
+      this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+      this.aop = aops[0];
       this.td = child.getTupleDesc();
-      Type gbfieldtype = (gfield < 0 ? null : child.getTupleDesc().getFieldType(gfield));
+      agg = newAggregator();
+      if (gfields.length == 0) {
+        maxGroups = Integer.MAX_VALUE;
+      } else {
+        long groupSize = GROUP_OVERHEAD * afields.length;
+        for (int g : gfields)
+          groupSize += td.getFieldType(g).getLen();
+        maxGroups = (int) Math.min(Integer.MAX_VALUE,
+            (long) memoryPages * BufferPool.PAGE_SIZE / groupSize);
+      }
+    }
+
+    private Aggregator newAggregator() {
+      if (afields.length > 1 || gfields.length > 1)
+        return new MultiAggregator(td, gfields, afields, aops);
+      Type gbfieldtype = (gfield < 0 ? null : td.getFieldType(gfield));
       if (td.getFieldType(afield) == Type.INT_TYPE) {
-        agg = new IntegerAggregator(gfield, gbfieldtype, afield, aop);
+        return new IntegerAggregator(gfield, gbfieldtype, afield, aop);
       } else {
-        agg = new StringAggregator(gfield, gbfieldtype, afield, aop);
+        return new StringAggregator(gfield, gbfieldtype, afield, aop);
       }
     }
 
+    /**
+     * Sets how many threads aggregate a child that is a {@link SeqScan} over
+     * a {@link HeapFile}.  1, the default, aggregates on the calling thread.
+     * Takes effect on the next open.
+     */
+    public void setParallelism(int threads) {
+      if (threads < 1)
+        throw new IllegalArgumentException("parallelism must be at least 1");
+      this.parallelism = threads;
+    }
+
+    /** @return how many threads aggregate the child, see {@link #setParallelism} */
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    /**
+     * @return how many page ranges the last open aggregated in parallel on
+     *         a fork-join pool; 0 if the child was aggregated serially
+     */
+    public int getParallelTasks() {
+      return parallelTasks.get();
+    }
+
+    /** @return the grouping columns in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+      return gfields.clone();
+    }
+
+    /** @return the aggregated columns in the <b>INPUT</b> tuples */
+    public int[] aggregateFields() {
+      return afields.clone();
+    }
+
+    /** @return the operator of each aggregate */
+    public Aggregator.Op[] aggregateOps() {
+      return aops.clone();
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
@@ -107,12 +264,298 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
 	      // some code goes here
         super.open();
-        child.open();
-        while (child.hasNext()) {
-          agg.mergeTupleIntoGroup(child.next());
-        }
+        childOpen = false;
+        // the aggregators keep fields of the child's tuples, never the tuples
+        if (child instanceof RecyclingIterator)
+          ((RecyclingIterator) child).setRecycleOutput(true);
+        if (gatherOf(child) == null)
+          openChild();
+        build();
+    }
+
+    /** Aggregates the child, spilling the groups that do not fit. */
+    private void build() throws DbException, TransactionAbortedException {
+      release();
+      parallelTasks.set(0);
+      agg = childOpen ? null : buildCollected();
+      if (agg == null && parallelism > 1)
+        agg = buildParallel();
+      if (agg != null) {
         iter = agg.iterator();
         iter.open();
+        return;
+      }
+      openChild();
+      agg = newAggregator();
+      partitions = new LinkedList<SpillFile>();
+      depths = new LinkedList<Integer>();
+      SpillFile[] parts = null;
+      try {
+        if (child instanceof BatchIterator && agg instanceof IntegerAggregator) {
+          // groups are counted a batch at a time, so the budget may be
+          // overshot by up to a batch's worth of groups
+          TupleBatch b;
+          while ((b = ((BatchIterator) child).nextBatch()) != null) {
+            if (parts == null) {
+              ((IntegerAggregator) agg).mergeBatch(b);
+              if (agg.numGroups() > maxGroups)
+                parts = newPartitions();
+            } else {
+              for (int i = 0; i < b.size(); i++)
+                mergeOrSpill(b.getTuple(b.row(i)), parts);
+            }
+          }
+        } else {
+          while (child.hasNext()) {
+            Tuple t = child.next();
+            if (parts == null) {
+              agg.mergeTupleIntoGroup(t);
+              if (agg.numGroups() > maxGroups)
+                parts = newPartitions();
+            } else {
+              mergeOrSpill(t, parts);
+            }
+          }
+        }
+        queue(parts, 1);
+      } catch (IOException e) {
+        release();
+        throw new DbException("aggregate could not spill: " + e.getMessage());
+      }
+      iter = agg.iterator();
+      iter.open();
+    }
+
+    /** Merges t into its group if it has one, or else spills it. */
+    private void mergeOrSpill(Tuple t, SpillFile[] parts) throws IOException {
+      if (!agg.mergeTupleIntoExistingGroup(t))
+        parts[SpillFile.partitionOf(groupHash(t), 0, FANOUT)].add(t);
+    }
+
+    /**
+     * Aggregates the next spilled partition, partitioning it again if its
+     * groups do not fit either.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException,
+        TransactionAbortedException {
+      if (partitions == null || partitions.isEmpty())
+        return false;
+      SpillFile part = partitions.removeFirst();
+      int depth = depths.removeFirst();
+      agg = newAggregator();
+      SpillFile[] parts = null;
+      try {
+        SpillFile.Reader in = part.reader();
+        for (Tuple t = in.next(); t != null; t = in.next()) {
+          if (parts == null) {
+            agg.mergeTupleIntoGroup(t);
+            if (depth < MAX_DEPTH && agg.numGroups() > maxGroups)
+              parts = newPartitions();
+          } else if (!agg.mergeTupleIntoExistingGroup(t)) {
+            parts[SpillFile.partitionOf(groupHash(t), depth, FANOUT)].add(t);
+          }
+        }
+        in.close();
+        part.delete();
+        queue(parts, depth + 1);
+      } catch (IOException e) {
+        part.delete();
+        throw new DbException("aggregate could not read its spill files: " + e.getMessage());
+      }
+      iter = agg.iterator();
+      iter.open();
+      return true;
+    }
+
+    private void openChild() throws DbException, TransactionAbortedException {
+      if (!childOpen) {
+        child.open();
+        childOpen = true;
+      }
+    }
+
+    /** @return the Gather that runs the child in parallel, if there is one */
+    private static Gather gatherOf(DbIterator child) {
+      if (child instanceof Gather)
+        return (Gather) child;
+      if (child instanceof ParallelSeqScan)
+        return ((ParallelSeqScan) child).asGather();
+      return null;
+    }
+
+    /**
+     * Aggregates a parallel child on its own workers, one partial aggregate
+     * per worker.
+     *
+     * @return the aggregate of the whole child, or null if the child does
+     *         not run in parallel or its groups do not fit in memory
+     */
+    private Aggregator buildCollected() throws DbException,
+        TransactionAbortedException {
+      Gather gather = gatherOf(child);
+      if (gather == null)
+        return null;
+      List<Aggregator> partials;
+      try {
+        partials = gather.collect(new Gather.Collector<Aggregator>() {
+          public Aggregator newState() {
+            return newAggregator();
+          }
+
+          public void add(Aggregator partial, Tuple t) {
+            partial.mergeTupleIntoGroup(t);
+            if (partial.numGroups() > maxGroups)
+              throw new TooManyGroups();
+          }
+        });
+      } catch (TooManyGroups e) {
+        return null;
+      }
+      Aggregator total = partials.get(0);
+      for (int i = 1; i < partials.size(); i++) {
+        total.combine(partials.get(i));
+        if (total.numGroups() > maxGroups)
+          return null;
+      }
+      return total;
+    }
+
+    /**
+     * Aggregates the child's file on a fork-join pool.
+     *
+     * @return the aggregate of the whole file, or null if the child is not
+     *         a scan of a HeapFile or its groups do not fit in memory
+     */
+    private Aggregator buildParallel() throws DbException,
+        TransactionAbortedException {
+      if (!(child instanceof SeqScan))
+        return null;
+      SeqScan scan = (SeqScan) child;
+      DbFile file = Database.getCatalog().getDbFile(scan.getTableId());
+      if (!(file instanceof HeapFile))
+        return null;
+      HeapFile hf = (HeapFile) file;
+      int pages = hf.numPages();
+      // a few tasks per thread, so that uneven ranges even out
+      int grain = Math.max(MIN_TASK_PAGES, (pages + 4 * parallelism - 1) / (4 * parallelism));
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        return pool.invoke(new PartialAggregate(hf, scan.getTransactionId(),
+            scan.getPredicates(), 0, pages, grain));
+      } catch (RuntimeException e) {
+        for (Throwable c = e; c != null; c = c.getCause()) {
+          if (c instanceof TooManyGroups) {
+            parallelTasks.set(0);
+            return null;
+          }
+          if (c instanceof DbException)
+            throw (DbException) c;
+          if (c instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) c;
+        }
+        throw e;
+      } finally {
+        pool.shutdown();
+      }
+    }
+
+    /** Thrown by a task whose partial aggregate outgrows the budget. */
+    private static class TooManyGroups extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+    }
+
+    /** Aggregates pages lo through hi - 1, splitting the range if it is large. */
+    private class PartialAggregate extends RecursiveTask<Aggregator> {
+      private static final long serialVersionUID = 1L;
+
+      private final HeapFile file;
+      private final TransactionId tid;
+      private final Predicate[] predicates;
+      private final int lo, hi, grain;
+
+      PartialAggregate(HeapFile file, TransactionId tid, Predicate[] predicates,
+          int lo, int hi, int grain) {
+        this.file = file;
+        this.tid = tid;
+        this.predicates = predicates;
+        this.lo = lo;
+        this.hi = hi;
+        this.grain = grain;
+      }
+
+      protected Aggregator compute() {
+        if (hi - lo > grain) {
+          int mid = (lo + hi) >>> 1;
+          PartialAggregate left = new PartialAggregate(file, tid, predicates, lo, mid, grain);
+          left.fork();
+          Aggregator right = new PartialAggregate(file, tid, predicates, mid, hi, grain).compute();
+          Aggregator partial = left.join();
+          partial.combine(right);
+          if (partial.numGroups() > maxGroups)
+            throw new TooManyGroups();
+          return partial;
+        }
+        parallelTasks.incrementAndGet();
+        Aggregator partial = newAggregator();
+        DbFileIterator it = file.iterator(tid, lo, hi, predicates);
+        try {
+          it.open();
+          while (it.hasNext()) {
+            partial.mergeTupleIntoGroup(it.next());
+            if (partial.numGroups() > maxGroups)
+              throw new TooManyGroups();
+          }
+        } catch (DbException e) {
+          throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          it.close();
+        }
+        return partial;
+      }
+    }
+
+    private int groupHash(Tuple t) {
+      int h = 0;
+      for (int g : gfields)
+        h = 31 * h + t.getField(g).hashCode();
+      return h;
+    }
+
+    private SpillFile[] newPartitions() throws IOException {
+      spilled = true;
+      SpillFile[] parts = new SpillFile[FANOUT];
+      for (int i = 0; i < FANOUT; i++)
+        parts[i] = new SpillFile(td);
+      return parts;
+    }
+
+    /** Puts the non-empty partitions at the front of the queue. */
+    private void queue(SpillFile[] parts, int depth) {
+      if (parts == null)
+        return;
+      for (int i = FANOUT - 1; i >= 0; i--) {
+        if (parts[i].size() == 0) {
+          parts[i].delete();
+        } else {
+          partitions.addFirst(parts[i]);
+          depths.addFirst(depth);
+        }
+      }
+    }
+
+    /** Deletes any partitions that have not been aggregated yet. */
+    private void release() {
+      if (partitions != null) {
+        for (SpillFile part : partitions)
+          part.delete();
+        partitions = null;
+        depths = null;
+      }
+      spilled = false;
     }
 
     /**
@@ -124,23 +567,42 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
       // some code goes here
-      if (iter.hasNext()) {
-        return iter.next();
+      while (true) {
+        if (iter.hasNext()) {
+          return iter.next();
+        }
+        if (!nextPartition()) {
+          return null;
+        }
       }
-      return null;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+      if (out == null)
+        out = new TupleBatch(getTupleDesc());
+      out.clear();
+      Tuple t;
+      while (!out.isFull() && (t = fetchNext()) != null)
+        out.add(t);
+      return out.rows() == 0 ? null : out;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
 	    // some code goes here
-      child.rewind();
-      iter.rewind();
+      if (childOpen)
+        child.rewind();
+      if (spilled) {
+        // the groups that were in memory at first are gone
+        build();
+      } else {
+        iter.rewind();
+      }
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields come
+     * first, in the order given to the constructor, followed by one column
+     * per aggregate. Every aggregate value is an INT.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -149,22 +611,28 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
       // some code goes here
-      if (gfield == -1) {
-        Type[] type = {td.getFieldType(afield)};
-        String[] aggName = {String.format("%s (%s)", nameOfAggregatorOp(aop), td.getFieldName(afield))};
-        return new TupleDesc(type, aggName);
-      } else {
-         Type[] type = {td.getFieldType(gfield), td.getFieldType(afield)};
-        String[] aggName = {td.getFieldName(gfield), String.format("%s (%s)", nameOfAggregatorOp(aop), td.getFieldName(afield))};
-        return new TupleDesc(type, aggName); 
+      int n = gfields.length + afields.length;
+      Type[] type = new Type[n];
+      String[] aggName = new String[n];
+      for (int i = 0; i < gfields.length; i++) {
+        type[i] = td.getFieldType(gfields[i]);
+        aggName[i] = td.getFieldName(gfields[i]);
       }
-    }    
-    
+      for (int i = 0; i < afields.length; i++) {
+        type[gfields.length + i] = Type.INT_TYPE;
+        aggName[gfields.length + i] = String.format("%s (%s)",
+            nameOfAggregatorOp(aops[i]), td.getFieldName(afields[i]));
+      }
+      return new TupleDesc(type, aggName);
+    }
+
     public void close() {
 	    // some code goes here
       super.close();
       child.close();
+      childOpen = false;
       iter.close();
+      release();
     }
 
     @Override
@@ -57,6 +57,29 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate only if its group value has
+     * already been encountered.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return false, without changing anything, if the tuple's group is new
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct group values merged so far
+     */
+    public int numGroups();
+
+    /**
+     * Folds the groups of another aggregator, built with the same arguments
+     * over different tuples, into this one, as if its tuples had been
+     * merged here.  Groups new to this aggregator come after its own.
+     *
+     * @param other the partial aggregate to add; it is not changed
+     */
+    public void combine(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * A DbIterator that can also return its tuples a {@link TupleBatch} at a
+ * time, which lets operators work on whole columns of ints instead of on
+ * one Tuple and its Fields at a time.  Between an open (or rewind) and the
+ * next close (or rewind), an iterator is read either with
+ * <code>hasNext</code> and <code>next</code> or with <code>nextBatch</code>,
+ * not both.
+ * <p>
+ * {@link TupleBatch#next} reads batches from any DbIterator, so an operator
+ * can consume batches whether or not its child produces them.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples.  The batch belongs to the iterator
+     * and is only valid until the next call of nextBatch, rewind or close;
+     * the caller may narrow its selection but must not otherwise change it.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples
+     * @throws IllegalStateException if the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
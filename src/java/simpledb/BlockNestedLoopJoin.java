@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin evaluates any join predicate by reading a block of
+ * child1 tuples into memory and scanning child2 once per block, rather than
+ * once per child1 tuple as {@link Join} does.  When all of child1 fits in
+ * one block, child2 is read exactly once.
+ * <p>
+ * As with {@link Join}, output tuples are the fields of the child1 tuple
+ * followed by those of the child2 tuple.
+ */
+public class BlockNestedLoopJoin extends Operator implements RecyclingIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default block size, in pages' worth of child1 tuples. */
+    public static final int DEFAULT_BLOCK_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int blockPages;
+
+    private transient TupleDesc td;
+    // whether to return the same output tuple for every row
+    private boolean recycle;
+    private transient JoinedTuple recycled;
+    private transient ArrayList<Tuple> block;
+    private int blockTuples;
+    private transient Tuple inner;
+    private int pos;
+    // whether child2 has been read since it was opened or rewound
+    private boolean innerRead;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate to join
+     * them on, with the default block size.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages
+     *            how many pages' worth of child1 tuples to join against each
+     *            scan of child2; a block always holds at least one tuple
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2, int blockPages) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        long bytes = (long) blockPages * BufferPool.PAGE_SIZE;
+        blockTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                bytes / child1.getTupleDesc().getSize()));
+        block = new ArrayList<Tuple>(Math.min(blockTuples, 1024));
+        inner = null;
+        innerRead = false;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        inner = null;
+        innerRead = false;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (pos < block.size()) {
+                    Tuple outer = block.get(pos++);
+                    if (p.filter(outer, inner))
+                        return merge(outer, inner);
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                pos = 0;
+                continue;
+            }
+            if (!nextBlock())
+                return null;
+        }
+    }
+
+    /**
+     * Reads the next block of child1 and rewinds child2 to scan it again.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty())
+            return false;
+        if (innerRead)
+            child2.rewind();
+        innerRead = true;
+        return true;
+    }
+
+    public void setRecycleOutput(boolean recycle) {
+        this.recycle = recycle;
+        recycled = null;
+    }
+
+    /**
+     * @return the output tuple for a left and a right tuple, which refers
+     *         to the two instead of copying their fields
+     */
+    private Tuple merge(Tuple left, Tuple right) {
+        if (!recycle)
+            return new JoinedTuple(td, left, right);
+        if (recycled == null)
+            recycled = new JoinedTuple(td, left.getTupleDesc().numFields());
+        recycled.set(left, right);
+        return recycled;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
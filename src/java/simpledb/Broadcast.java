@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Broadcast gives every worker of a {@link Gather} all the tuples of an
+ * input, typically the small build side of a join whose probe side the
+ * workers split between them.  The input is read once, into memory, when
+ * the Gather opens, and each worker then reads it through a
+ * {@link #reader} of its own.
+ */
+public class Broadcast implements SharedInput {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient volatile List<Tuple> tuples;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the input to give every worker; it must fit in memory
+     */
+    public Broadcast(DbIterator child) {
+        this.child = child;
+    }
+
+    /** @return the input this broadcasts */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void openShared() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        child.open();
+        try {
+            while (child.hasNext())
+                ts.add(child.next());
+        } finally {
+            child.close();
+        }
+        tuples = Collections.unmodifiableList(ts);
+    }
+
+    public void closeShared() {
+        tuples = null;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the input, for one worker.
+     * Unlike the input itself, the iterator may be opened before the
+     * Gather is: it reads the tuples of whichever run of the Gather is
+     * current when it is opened.
+     */
+    public DbIterator reader() {
+        return new Reader();
+    }
+
+    private class Reader implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient Iterator<Tuple> it;
+
+        public void open() throws DbException {
+            List<Tuple> ts = tuples;
+            if (ts == null)
+                throw new DbException("broadcast input has not been read");
+            it = ts.iterator();
+        }
+
+        public boolean hasNext() {
+            return it != null && it.hasNext();
+        }
+
+        public Tuple next() {
+            if (it == null)
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,11 +14,54 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a {@link ConcurrentHashMap}, which latches per hash bin
+ * of the PageId rather than on the whole pool, so hits from different
+ * threads do not serialize.  Misses are single-flight: concurrent requests
+ * for the same missing page wait on one {@link FutureTask} and only one
+ * {@link DbFile#readPage} call is made.  Only picking an eviction victim
+ * takes the pool monitor.
+ * <p>
+ * Pages can also be read ahead of need with {@link #prefetchPage}, which
+ * loads them on a background thread and admits them to the replacement
+ * policy as prime eviction candidates until they are first requested.
+ * <p>
+ * Large sequential scans can read through a {@link BufferRing} instead of
+ * the shared pool.  Ring pages are in the page table like any other page,
+ * but the replacement policy never sees them; the ring recycles them
+ * itself.
  */
 public class BufferPool {
 
-    private Map<PageId, Page> map;
+    private ConcurrentHashMap<PageId, Page> map;
+    private ConcurrentHashMap<PageId, FutureTask<Page>> loads;
+    private ConcurrentHashMap<PageId, BufferRing> ringOf;
+    private Semaphore frames;
+    // frames handed out beyond numPages when a closing ring had to leave a
+    // page in the shared pool; paid back before frames are released
+    private final AtomicInteger overdraft = new AtomicInteger();
     private int numPages;
+    private ReplacementPolicy policy;
+    private LockManager lockManager;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong readAheads = new AtomicLong();
+
+    // shared by all pools; idle threads exit, so a discarded pool leaks none
+    private static final ThreadPoolExecutor READ_AHEAD;
+    static {
+        READ_AHEAD = new ThreadPoolExecutor(2, 2, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(256), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-read-ahead");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        READ_AHEAD.allowCoreThreadTimeOut(true);
+    }
 
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
@@ -24,16 +70,87 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** How long a read waits for a frame before trying to evict again. */
+    private static final long FRAME_WAIT_MS = 5;
+
+    /** Largest number of frames in a {@link BufferRing}. */
+    public static final int RING_PAGES = 32;
     public static int callTime = 0;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        map = new HashMap<PageId, Page>();
+        this(numPages, new ClockReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * specified policy to pick pages to evict when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        map = new ConcurrentHashMap<PageId, Page>();
+        loads = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        ringOf = new ConcurrentHashMap<PageId, BufferRing>();
+        frames = new Semaphore(numPages);
         this.numPages = numPages;
+        this.policy = policy;
+        this.lockManager = new LockManager();
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the replacement policy used by this buffer pool */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls served without reading from disk */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages evicted to make room for other pages */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return the number of pages read by {@link #prefetchPage} */
+    public long getReadAheadCount() {
+        return readAheads.get();
+    }
+
+    /** Reset the hit, miss, eviction and read-ahead counters to zero. */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        readAheads.set(0);
+    }
+
+    /** @return true if the page is resident in the pool */
+    public boolean isResident(PageId pid) {
+        return map.containsKey(pid);
+    }
+
+    /** @return true if the page is being read into the pool right now */
+    public boolean isLoading(PageId pid) {
+        return loads.containsKey(pid);
     }
 
     /**
@@ -51,21 +168,353 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        if (map.containsKey(pid)) {
-            return map.get(pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Like {@link #getPage(TransactionId, PageId, Permissions)}, but a
+     * missing page is read into the given ring rather than the shared pool.
+     *
+     * @param ring the scan's ring, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            BufferRing ring) throws TransactionAbortedException, DbException {
+        if (tid != null) {
+            lockManager.acquire(tid, pid, perm);
+        }
+        Page page = fetch(pid, ring);
+        if (ring != null)
+            ring.count(ringOf.get(pid) == ring);
+        return page;
+    }
+
+    private Page fetch(PageId pid, BufferRing ring) throws DbException {
+        while (true) {
+            Page page = map.get(pid);
+            if (page != null) {
+                hits.incrementAndGet();
+                if (ring == null && ringOf.containsKey(pid))
+                    adopt(pid);
+                policy.pageAccessed(pid);
+                return page;
+            }
+
+            FutureTask<Page> load = new FutureTask<Page>(new PageLoader(pid, false, ring));
+            FutureTask<Page> inflight = loads.putIfAbsent(pid, load);
+            if (inflight == null) {
+                inflight = load;
+                load.run();
+            }
+            try {
+                page = inflight.get();
+            } catch (CancellationException e) {
+                // a read-ahead that was never started
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for page " + pid);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DbException)
+                    throw (DbException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new DbException("could not read page " + pid + ": " + cause);
+            }
+            // null means a read-ahead gave up for want of a free frame
+            if (page != null) {
+                if (inflight != load) {
+                    hits.incrementAndGet();
+                    policy.pageAccessed(pid);
+                }
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Asynchronously reads the specified page into the pool, unless it is
+     * already resident or being read.  No lock is taken; a transaction that
+     * later asks for the page still locks it through {@link #getPage}.  The
+     * read is dropped if the read-ahead queue is full or no frame can be
+     * freed without waiting.
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Like {@link #prefetchPage(PageId)}, but reads the page into the
+     * given ring rather than the shared pool.
+     *
+     * @param ring the scan's ring, or null to use the shared pool
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+        if (map.containsKey(pid) || loads.containsKey(pid))
+            return;
+        FutureTask<Page> load = new FutureTask<Page>(new PageLoader(pid, true, ring));
+        if (loads.putIfAbsent(pid, load) != null)
+            return;
+        try {
+            READ_AHEAD.execute(load);
+        } catch (RejectedExecutionException e) {
+            loads.remove(pid, load);
+            load.cancel(false);
         }
-        else if (map.size() >= numPages) {
-                throw new DbException("The BufferPool is full!");
+    }
+
+    /**
+     * Reads one missing page into the pool.  At most one PageLoader per
+     * PageId is registered in loads at a time; the page is published in the
+     * page table before the loader is unregistered, so a late caller either
+     * joins the load or finds the page.
+     */
+    private class PageLoader implements Callable<Page> {
+        private final PageId pid;
+        private final boolean readAhead;
+        private final BufferRing ring;
+
+        PageLoader(PageId pid, boolean readAhead, BufferRing ring) {
+            this.pid = pid;
+            this.readAhead = readAhead;
+            this.ring = ring;
         }
-        else {
-            Catalog cat = Database.getCatalog();
-            map.put(pid, cat.getDbFile(pid.getTableId()).readPage(pid));
-            return map.get(pid);
+
+        public Page call() throws DbException {
+            try {
+                Page page = map.get(pid);
+                if (page != null) {
+                    if (!readAhead) {
+                        hits.incrementAndGet();
+                        policy.pageAccessed(pid);
+                    }
+                    return page;
+                }
+                // a demand read through a closed ring falls back to the
+                // shared pool
+                BufferRing into = null;
+                if (ring != null && reserveRingSlot(ring, !readAhead))
+                    into = ring;
+                else if (readAhead && (ring != null || !tryReserveFrame()))
+                    return null;
+                else if (!readAhead)
+                    reserveFrame();
+                if (readAhead)
+                    readAheads.incrementAndGet();
+                else
+                    misses.incrementAndGet();
+                try {
+                    page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+                } catch (IOException e) {
+                    releaseSlot(into);
+                    throw new DbException("could not read page " + pid + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    releaseSlot(into);
+                    throw e;
+                }
+                if (into != null) {
+                    ringOf.put(pid, into);
+                    map.put(pid, page);
+                    if (!into.add(pid)) {
+                        // the scan finished while we were reading
+                        recycle(into, pid, true);
+                    }
+                    return page;
+                }
+                map.put(pid, page);
+                if (readAhead)
+                    policy.pagePrefetched(pid);
+                else
+                    policy.pageAdded(pid);
+                return page;
+            } finally {
+                loads.remove(pid);
+            }
         }
     }
 
+    /**
+     * Claims a free frame for a page about to be read, evicting pages until
+     * one is available.
+     */
+    private void reserveFrame() throws DbException {
+        while (!frames.tryAcquire()) {
+            if (evictPage())
+                continue;
+            // every frame is held by a read still in flight: wait for one
+            // to fail and give its frame back, or to finish so that its
+            // page can be evicted
+            try {
+                if (frames.tryAcquire(FRAME_WAIT_MS, TimeUnit.MILLISECONDS))
+                    return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for a frame");
+            }
+        }
+    }
+
+    private void releaseSlot(BufferRing ring) {
+        if (ring != null)
+            ring.free();
+        else
+            releaseFrame();
+    }
+
+    /** Gives a shared frame back, paying off any overdraft first. */
+    private void releaseFrame() {
+        while (true) {
+            int owed = overdraft.get();
+            if (owed == 0) {
+                frames.release();
+                return;
+            }
+            if (overdraft.compareAndSet(owed, owed - 1))
+                return;
+        }
+    }
+
+    /**
+     * Creates a ring for a large sequential scan.  The ring holds up to
+     * {@link #RING_PAGES} pages, or a quarter of the pool if that is less,
+     * but at least 4.
+     */
+    public BufferRing newRing() {
+        return new BufferRing(Math.max(4, Math.min(RING_PAGES, numPages / 4)));
+    }
+
+    /**
+     * Hands back a ring whose scan is done.  Its clean pages are dropped;
+     * pages that are dirty or locked for writing move to the shared pool.
+     */
+    public void releaseRing(BufferRing ring) {
+        for (PageId pid : ring.close()) {
+            try {
+                recycle(ring, pid, true);
+            } catch (DbException e) {
+                // not thrown when forced
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Claims a ring slot for a page about to be read, recycling the ring's
+     * oldest page if the ring is full.
+     *
+     * @param wait if true, wait for reads in flight when every slot is
+     *   taken by one
+     * @return false if no slot could be claimed, or the ring is closed
+     */
+    private boolean reserveRingSlot(BufferRing ring, boolean wait) throws DbException {
+        while (!ring.tryClaim()) {
+            PageId victim = ring.oldest();
+            if (victim != null) {
+                if (recycle(ring, victim, false))
+                    return true;
+                continue;
+            }
+            if (!wait || ring.isClosed())
+                return false;
+            Thread.yield();
+        }
+        return true;
+    }
+
+    /**
+     * Takes a page that was removed from ring with its slot still claimed
+     * out of the ring.  A clean page nobody is writing is dropped from the
+     * pool; otherwise it cannot go yet and is moved to the shared pool,
+     * evicting a shared page if need be, or, if force is set, by
+     * overdrawing the pool.
+     *
+     * @return true if the slot was handed over to the caller rather than
+     *   freed; only when the page was dropped and force is not set
+     */
+    private boolean recycle(BufferRing ring, PageId pid, boolean force)
+        throws DbException {
+        synchronized (this) {
+            if (ringOf.get(pid) != ring) {
+                // discarded meanwhile
+                ring.free();
+                return false;
+            }
+            Page page = map.get(pid);
+            if (page == null || (page.isDirty() == null
+                    && !lockManager.isExclusivelyLocked(pid))) {
+                map.remove(pid);
+                ringOf.remove(pid);
+                if (force)
+                    ring.free();
+                return !force;
+            }
+        }
+        if (force) {
+            if (!frames.tryAcquire())
+                overdraft.incrementAndGet();
+        } else {
+            try {
+                reserveFrame();
+            } catch (DbException e) {
+                synchronized (this) {
+                    if (ringOf.get(pid) == ring)
+                        ring.requeue(pid);
+                    else
+                        ring.free();
+                }
+                throw e;
+            }
+        }
+        synchronized (this) {
+            if (ringOf.remove(pid, ring))
+                policy.pageAdded(pid);
+            else
+                releaseFrame();
+            ring.free();
+        }
+        return false;
+    }
+
+    /**
+     * Moves a ring page that was requested outside its ring into the shared
+     * pool, if a shared frame is free.
+     */
+    private void adopt(PageId pid) {
+        BufferRing ring = ringOf.get(pid);
+        if (ring == null || !frames.tryAcquire())
+            return;
+        synchronized (this) {
+            if (ringOf.get(pid) == ring && ring.remove(pid)) {
+                ringOf.remove(pid);
+                policy.pageAdded(pid);
+                return;
+            }
+        }
+        releaseFrame();
+    }
+
+    /**
+     * Claims a free frame for a read-ahead, evicting at most one page.
+     *
+     * @return false if no frame could be freed without waiting
+     */
+    private boolean tryReserveFrame() {
+        if (frames.tryAcquire())
+            return true;
+        try {
+            evictPage();
+        } catch (DbException e) {
+            return false;
+        }
+        return frames.tryAcquire();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -76,8 +525,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for proj1
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -86,28 +534,43 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for proj1
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * The pool runs NO STEAL / FORCE: a committing transaction's dirty pages
+     * are written out here, and an aborting transaction's dirty pages are
+     * simply dropped, since they can never have reached disk.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        try {
+            for (PageId pid : lockManager.lockedPages(tid)) {
+                Page page = map.get(pid);
+                TransactionId dirtier = page == null ? null : page.isDirty();
+                if (dirtier == null || !dirtier.equals(tid))
+                    continue;
+                if (commit) {
+                    flushPage(pid);
+                    page.setBeforeImage();
+                } else {
+                    discardPage(pid);
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -129,8 +592,9 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
       DbFile hf = Database.getCatalog().getDbFile(tableId);
-      hf.insertTuple(tid, t);
-
+      for (Page page : hf.insertTuple(tid, t)) {
+        page.markDirty(true, tid);
+      }
     }
 
     /**
@@ -151,7 +615,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
       DbFile hf = Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
-      hf.deleteTuple(tid, t);
+      Page page = hf.deleteTuple(tid, t);
+      page.markDirty(true, tid);
     }
 
     /**
@@ -160,9 +625,9 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for proj1
-
+        for (PageId pid : new ArrayList<PageId>(map.keySet())) {
+            flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -171,8 +636,16 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-	// not necessary for proj1
+        if (map.remove(pid) != null) {
+            BufferRing ring = ringOf.remove(pid);
+            if (ring != null) {
+                // a page being recycled has its slot freed by the recycler
+                ring.remove(pid);
+                return;
+            }
+            policy.pageRemoved(pid);
+            releaseFrame();
+        }
     }
 
     /**
@@ -180,24 +653,79 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        Page page = map.get(pid);
+        if (page == null || page.isDirty() == null) {
+            return;
+        }
+        Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        for (Map.Entry<PageId, Page> e : new ArrayList<Map.Entry<PageId, Page>>(map.entrySet())) {
+            TransactionId dirtier = e.getValue().isDirty();
+            if (dirtier != null && dirtier.equals(tid)) {
+                flushPage(e.getKey());
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are preferred; a dirty page is only chosen if it can be
+     * flushed and no clean page is available.
+     *
+     * @return false if there was nothing to evict because the free frames
+     *   are reserved by reads still in flight
+     * @throws DbException if no resident page can be evicted
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
+    private synchronized  boolean evictPage() throws DbException {
+        PageId victim = policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                Page page = map.get(pid);
+                return page != null && page.isDirty() == null
+                    && !lockManager.isExclusivelyLocked(pid);
+            }
+        });
+        if (victim == null) {
+            victim = policy.chooseVictim(new ReplacementPolicy.EvictionFilter() {
+                public boolean canEvict(PageId pid) {
+                    Page page = map.get(pid);
+                    return page != null && isFlushable(page);
+                }
+            });
+        }
+        if (victim == null) {
+            if (map.size() - ringOf.size() < numPages)
+                return false;
+            throw new DbException("no page in the BufferPool can be evicted");
+        }
+        try {
+            flushPage(victim);
+        } catch (IOException e) {
+            throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+        }
+        map.remove(victim);
+        policy.pageRemoved(victim);
+        releaseFrame();
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return true if the page may be written back to disk now.  Under NO
+     *   STEAL that excludes pages dirtied by a transaction that is still
+     *   running (i.e. still holds locks), and pages a running transaction
+     *   has locked for writing.
+     */
+    private boolean isFlushable(Page page) {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier != null && lockManager.holdsAnyLock(dirtier))
+            return false;
+        return !lockManager.isExclusivelyLocked(page.getId());
     }
 
 }
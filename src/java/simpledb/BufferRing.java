@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A BufferRing is a small private set of frames that a large sequential
+ * scan reads its pages into, so that the scan recycles its own frames in
+ * FIFO order instead of evicting pages from the shared part of the
+ * {@link BufferPool}.  Ring frames are allowed on top of the pool's own
+ * pages.  A ring page that is requested outside the ring moves to the
+ * shared pool if a frame is free there.
+ * <p>
+ * Rings are obtained from {@link BufferPool#newRing} and must be handed
+ * back with {@link BufferPool#releaseRing} when the scan is done.  This
+ * class only keeps the ring's bookkeeping; the BufferPool moves the pages.
+ */
+public class BufferRing {
+
+    private final int capacity;
+    // resident ring pages, oldest first
+    private final LinkedList<PageId> pages;
+    // resident pages plus reads in flight and pages being recycled
+    private int used;
+    private boolean closed;
+
+    private long ringPages;
+    private long sharedPages;
+
+    BufferRing(int capacity) {
+        this.capacity = capacity;
+        this.pages = new LinkedList<PageId>();
+    }
+
+    /** @return the number of frames in this ring */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of pages the scan got from the ring's frames */
+    public synchronized long getRingPageCount() {
+        return ringPages;
+    }
+
+    /** @return the number of pages the scan found in the shared pool */
+    public synchronized long getSharedPageCount() {
+        return sharedPages;
+    }
+
+    synchronized void count(boolean fromRing) {
+        if (fromRing)
+            ringPages++;
+        else
+            sharedPages++;
+    }
+
+    /** @return the slots taken by resident pages and reads in flight */
+    synchronized int usedSlots() {
+        return used;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /** Claims a free slot; false if the ring is full or closed. */
+    synchronized boolean tryClaim() {
+        if (closed || used >= capacity)
+            return false;
+        used++;
+        return true;
+    }
+
+    /**
+     * Takes the oldest resident page off the ring for recycling.  Its slot
+     * stays claimed until {@link #free} is called.
+     */
+    synchronized PageId oldest() {
+        return pages.poll();
+    }
+
+    /** Gives back a claimed slot. */
+    synchronized void free() {
+        used--;
+    }
+
+    /** Records that a page read into a claimed slot is now resident. */
+    synchronized boolean add(PageId pid) {
+        if (closed)
+            return false;
+        pages.addLast(pid);
+        return true;
+    }
+
+    /** Puts a page taken by {@link #oldest} back at the head of the ring. */
+    synchronized void requeue(PageId pid) {
+        pages.addFirst(pid);
+    }
+
+    /**
+     * Removes a resident page from the ring and frees its slot.
+     *
+     * @return false if the page was not resident in the ring, e.g. because
+     *   it is being recycled
+     */
+    synchronized boolean remove(PageId pid) {
+        if (!pages.remove(pid))
+            return false;
+        used--;
+        return true;
+    }
+
+    /** Closes the ring and returns the pages still resident in it. */
+    synchronized List<PageId> close() {
+        closed = true;
+        List<PageId> left = new ArrayList<PageId>(pages);
+        pages.clear();
+        return left;
+    }
+}
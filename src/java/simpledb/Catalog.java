@@ -123,13 +123,27 @@ public class Catalog {
         throw new NoSuchElementException();
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their open files */
     public void clear() {
+        for (Val v : map.values()) {
+            if (v.file instanceof HeapFile) {
+                try {
+                    ((HeapFile) v.file).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         map = new HashMap<Integer, Val>();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <tt>name (field type [pk], ...) [mmap|pax]</tt>; a
+     * trailing <tt>mmap</tt> opens the table's HeapFile in memory-mapped mode,
+     * and a trailing <tt>pax</tt> opens it as a {@link PaxFile}.
+     * A <tt>varchar</tt> field is a string field; a table with one is stored
+     * in slotted pages, where strings take only their own length.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -143,6 +157,19 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                boolean mapped = false;
+                boolean pax = false;
+                if (options.toLowerCase().equals("mmap"))
+                    mapped = true;
+                else if (options.toLowerCase().equals("pax"))
+                    pax = true;
+                else if (options.length() > 0) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
+                // any varchar column stores the table in slotted pages
+                boolean slotted = false;
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -154,7 +181,10 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
+                    else if (els2[1].trim().toLowerCase().equals("varchar")) {
+                        types.add(Type.STRING_TYPE);
+                        slotted = true;
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -170,7 +200,9 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = pax ? new PaxFile(dataFile, t)
+                    : new HeapFile(dataFile, t, mapped, slotted);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement.  Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on every access.  The
+ * clock hand sweeps the frames, clearing reference bits, and picks the first
+ * evictable page whose bit is already clear.
+ * <p>
+ * A hit only sets a volatile flag, so {@link #pageAccessed} takes no lock;
+ * only admitting, removing and choosing pages synchronize on the policy.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced;
+        volatile boolean prefetched;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+            this.referenced = true;
+        }
+    }
+
+    private ArrayList<Frame> frames;
+    private ConcurrentHashMap<PageId, Frame> frameOf;
+    private LinkedList<Integer> freeSlots;
+    private int hand;
+
+    public ClockReplacementPolicy() {
+        frames = new ArrayList<Frame>();
+        frameOf = new ConcurrentHashMap<PageId, Frame>();
+        freeSlots = new LinkedList<Integer>();
+        hand = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        admit(pid);
+    }
+
+    public synchronized void pagePrefetched(PageId pid) {
+        if (!frameOf.containsKey(pid)) {
+            // no second chance for a page nobody has asked for twice
+            Frame frame = admit(pid);
+            frame.referenced = false;
+            frame.prefetched = true;
+        }
+    }
+
+    private Frame admit(PageId pid) {
+        Frame frame;
+        if (freeSlots.isEmpty()) {
+            frame = new Frame(pid, frames.size());
+            frames.add(frame);
+        } else {
+            frame = new Frame(pid, freeSlots.removeFirst());
+            frames.set(frame.slot, frame);
+        }
+        frameOf.put(pid, frame);
+        return frame;
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame frame = frameOf.get(pid);
+        if (frame != null) {
+            if (frame.prefetched)
+                frame.prefetched = false;
+            else
+                frame.referenced = true;
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame.slot, null);
+            freeSlots.add(frame.slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(EvictionFilter filter) {
+        int n = frames.size();
+        if (n == 0)
+            return null;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            Frame frame = frames.get(hand);
+            hand = (hand + 1) % n;
+            if (frame == null || !filter.canEvict(frame.pid)) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            return frame.pid;
+        }
+        return null;
+    }
+}
@@ -54,6 +54,14 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Create a new instance of the buffer pool that uses the specified
+        page replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
@@ -16,8 +16,9 @@ public interface DbFile extends Serializable {
      * Read the specified page from disk.
      *
      * @throws IllegalArgumentException if the page does not exist in this file.
+     * @throws IOException if the page cannot be read
      */
-    public Page readPage(PageId id);
+    public Page readPage(PageId id) throws IOException;
 
     /**
      * Push the specified page to disk.
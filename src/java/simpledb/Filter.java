@@ -3,14 +3,24 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select.  Read a batch
+ * at a time, it narrows the selection of each of its child's batches with
+ * {@link Predicate#select}.  A filter directly over a {@link SeqScan}
+ * pushes its predicate into the scan, which evaluates it on the page bytes
+ * and materializes only the tuples that pass.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     
     private Predicate p;
     private DbIterator child;
+    // what the filter reads: the child, or a scan of the child's table
+    // that applies the predicate itself
+    private transient DbIterator input;
+    private transient boolean pushed;
+    private transient TupleBatch buffer;
+    private transient int[] selection;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,19 +50,22 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        child.open();
+        pushed = child instanceof SeqScan;
+        input = pushed ? ((SeqScan) child).withPredicate(p) : child;
+        input.open();
         super.open();
     }
 
     public void close() {
         // some code goes here
-        child.close();
+        if (input != null)
+            input.close();
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.rewind();
+        input.rewind();
     }
 
     /**
@@ -68,9 +81,9 @@ public class Filter extends Operator {
             TransactionAbortedException, DbException {
         // some code goes here
         Tuple targetTuple = null;
-        while (child.hasNext()) {
-          Tuple tuple = child.next();
-          if (p.filter(tuple)){
+        while (input.hasNext()) {
+          Tuple tuple = input.next();
+          if (pushed || p.filter(tuple)){
             targetTuple = tuple;
             break;
           }
@@ -78,6 +91,25 @@ public class Filter extends Operator {
         return targetTuple;
     }
 
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (buffer == null) {
+            buffer = new TupleBatch(child.getTupleDesc());
+            selection = new int[TupleBatch.CAPACITY];
+        }
+        TupleBatch b;
+        while ((b = TupleBatch.next(input, buffer)) != null) {
+            if (pushed)
+                return b;
+            int n = p.select(b, selection);
+            if (n > 0) {
+                b.setSelection(selection, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -91,6 +123,7 @@ public class Filter extends Operator {
         // some code goes here
         if(children !=null && children.length>0){
           child = children[0];
+          buffer = null;
         }
     }
 
@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Gather runs a {@link Pipeline} on several worker threads and returns the
+ * tuples of all the copies as one stream, in no particular order.  It is the
+ * exchange operator through which parallel work rejoins a serial plan.
+ * <p>
+ * The copies share the Gather's {@link SharedInput}s: typically one copy
+ * reads {@link MorselScan}s of a {@link ParallelSeqScan}, so the workers
+ * split a table between them morsel by morsel, while a {@link Broadcast}
+ * gives every copy all of a small input, or a {@link Repartition} gives each
+ * copy its own partition of one.  Each copy is opened, read and closed on
+ * its worker's thread.
+ * <p>
+ * Parallel execution does not change what the locking layer sees: the
+ * operators of every copy are built with the plan's TransactionId, so the
+ * workers lock pages as that one transaction.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Pipeline pipeline;
+    private final int workers;
+    private final SharedInput[] inputs;
+    private DbIterator template;
+    private transient TupleQueue queue;
+
+    /**
+     * Constructor.
+     *
+     * @param pipeline
+     *            builds each worker's copy of the pipeline
+     * @param workers
+     *            the number of worker threads
+     * @param inputs
+     *            the inputs the copies share
+     */
+    public Gather(Pipeline pipeline, int workers, SharedInput... inputs) {
+        if (workers < 1)
+            throw new IllegalArgumentException("need at least one worker");
+        this.pipeline = pipeline;
+        this.workers = workers;
+        this.inputs = inputs.clone();
+        // a copy that is never opened, for the TupleDesc and for EXPLAIN
+        this.template = pipeline.instantiate(0);
+    }
+
+    /** @return the number of worker threads */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /** @return the pipeline each worker runs a copy of */
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    /** @return the inputs the copies share */
+    public SharedInput[] getInputs() {
+        return inputs.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return template.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        openInputs();
+        queue = new TupleQueue("simpledb-gather");
+        queue.start(instantiate());
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        openInputs();
+        queue = new TupleQueue("simpledb-gather");
+        queue.start(instantiate());
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return queue.next();
+    }
+
+    /** Folds the tuples of one worker's copy of the pipeline into a state. */
+    public interface Collector<T> {
+        /** @return a new, empty state for one worker */
+        public T newState();
+
+        /** Adds a tuple to a worker's state; called on that worker's thread. */
+        public void add(T state, Tuple t) throws DbException,
+                TransactionAbortedException;
+    }
+
+    /**
+     * Runs the pipeline to completion without going through the queue:
+     * every worker folds the tuples of its own copy into a state of its
+     * own.  This is how an operator such as {@link Aggregate} builds partial
+     * results in parallel.  The Gather must not be open.
+     *
+     * @return the state of each worker
+     */
+    public <T> List<T> collect(final Collector<T> collector)
+            throws DbException, TransactionAbortedException {
+        openInputs();
+        ExecutorService pool = Executors.newFixedThreadPool(workers,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-gather");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            List<Future<T>> results = new ArrayList<Future<T>>();
+            for (final DbIterator copy : instantiate()) {
+                results.add(pool.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        T state = collector.newState();
+                        copy.open();
+                        try {
+                            while (copy.hasNext())
+                                collector.add(state, copy.next());
+                        } finally {
+                            copy.close();
+                        }
+                        return state;
+                    }
+                }));
+            }
+            List<T> states = new ArrayList<T>(workers);
+            for (Future<T> f : results)
+                states.add(get(f));
+            return states;
+        } finally {
+            pool.shutdownNow();
+            closeInputs();
+        }
+    }
+
+    /** Waits for a worker of collect, rethrowing whatever it threw. */
+    private static <T> T get(Future<T> f) throws DbException,
+            TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new DbException("worker failed: " + cause);
+        }
+    }
+
+    private DbIterator[] instantiate() {
+        DbIterator[] copies = new DbIterator[workers];
+        for (int i = 0; i < workers; i++)
+            copies[i] = pipeline.instantiate(i);
+        return copies;
+    }
+
+    private void openInputs() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < inputs.length; i++) {
+            try {
+                inputs[i].openShared();
+            } catch (DbException e) {
+                closeInputs(i);
+                throw e;
+            } catch (TransactionAbortedException e) {
+                closeInputs(i);
+                throw e;
+            }
+        }
+    }
+
+    private void closeInputs() {
+        closeInputs(inputs.length);
+    }
+
+    /** Closes the first n inputs. */
+    private void closeInputs(int n) {
+        for (int i = 0; i < n; i++)
+            inputs[i].closeShared();
+    }
+
+    private void stop() {
+        if (queue != null) {
+            queue.close();
+            queue = null;
+            closeInputs();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { template };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.template = children[0];
+    }
+}
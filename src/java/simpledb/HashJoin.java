@@ -0,0 +1,412 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin joins its children on an equality predicate by building a hash
+ * table on one input and probing it with the other.
+ * <p>
+ * The smaller input is the build side.  The sizes of the children are not
+ * known up front, so open reads both a tuple at a time until one of them
+ * runs out; that one is hashed, and the tuples already read from the other
+ * are the first to probe.  If the memory budget runs out before either input
+ * does, both inputs are partitioned on the join key into {@link SpillFile}s
+ * (a Grace hash join) and each pair of partitions is joined on its own,
+ * building on the smaller of the two.  A pair whose build side still does
+ * not fit is partitioned again with a different hash, at most
+ * {@link #MAX_DEPTH} times.
+ * <p>
+ * As with {@link Join}, output tuples are the fields of the child1 tuple
+ * followed by those of the child2 tuple.
+ */
+public class HashJoin extends Operator implements RecyclingIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages' worth of tuples. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Number of partitions each partitioning pass writes. */
+    public static final int FANOUT = 16;
+
+    /** Number of times a partition is split again before it is joined anyway. */
+    public static final int MAX_DEPTH = 3;
+
+    /** A pair of spilled partitions, one per input. */
+    private static class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final int depth;
+
+        Partition(TupleDesc td1, TupleDesc td2, int depth) throws IOException {
+            this.left = new SpillFile(td1);
+            this.right = new SpillFile(td2);
+            this.depth = depth;
+        }
+
+        void delete() {
+            left.delete();
+            right.delete();
+        }
+    }
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final long budget;
+
+    private transient TupleDesc td;
+    // whether to return the same output tuple for every row
+    private boolean recycle;
+    private transient JoinedTuple recycled;
+    // the hash table on the build side, and which child that is
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private transient Type keyType;
+    private boolean buildLeft;
+    // probe input: tuples read while picking the build side, then either
+    // the rest of the probe child or the probe partition's file
+    private transient Iterator<Tuple> pending;
+    private transient DbIterator probeChild;
+    private transient SpillFile.Reader probeReader;
+    private transient LinkedList<Partition> partitions;
+    private transient Partition current;
+    private transient Tuple probe;
+    private transient ArrayList<Tuple> matches;
+    private int match;
+
+    /**
+     * Constructor.  Accepts two children to join and the equality predicate
+     * to join them on, with the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages' worth of tuples the join may keep in memory
+     *            before it spills to disk
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashJoin needs an EQUALS predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.budget = (long) memoryPages * BufferPool.PAGE_SIZE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        release();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (table != null && partitions == null && probeChild != null) {
+            // everything fit in memory: keep the table, replay the probe side
+            probeChild.rewind();
+            pending = null;
+            matches = null;
+            return;
+        }
+        release();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && match < matches.size()) {
+                Tuple built = matches.get(match++);
+                return buildLeft ? merge(built, probe) : merge(probe, built);
+            }
+            matches = null;
+            probe = nextProbe();
+            if (probe == null) {
+                if (!nextPartition())
+                    return null;
+                continue;
+            }
+            Field key = probe.getField(buildLeft ? p.getField2() : p.getField1());
+            if (key.getType() == keyType) {
+                matches = table.get(key);
+                match = 0;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    public void setRecycleOutput(boolean recycle) {
+        this.recycle = recycle;
+        recycled = null;
+    }
+
+    /**
+     * @return the output tuple for a left and a right tuple, which refers
+     *         to the two instead of copying their fields
+     */
+    private Tuple merge(Tuple left, Tuple right) {
+        if (!recycle)
+            return new JoinedTuple(td, left, right);
+        if (recycled == null)
+            recycled = new JoinedTuple(td, left.getTupleDesc().numFields());
+        recycled.set(left, right);
+        return recycled;
+    }
+
+    /**
+     * Reads both children until one is exhausted, which becomes the build
+     * side, or until the budget is spent, in which case both are spilled.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        int size1 = child1.getTupleDesc().getSize();
+        int size2 = child2.getTupleDesc().getSize();
+        long bytes = 0;
+        while (true) {
+            if (!child1.hasNext()) {
+                buildLeft = true;
+                break;
+            }
+            left.add(child1.next());
+            bytes += size1;
+            if (!child2.hasNext()) {
+                buildLeft = false;
+                break;
+            }
+            right.add(child2.next());
+            bytes += size2;
+            if (bytes > budget) {
+                spill(left, right);
+                return;
+            }
+        }
+        if (buildLeft) {
+            table = hash(left, p.getField1(), child1.getTupleDesc());
+            pending = right.iterator();
+            probeChild = child2;
+        } else {
+            table = hash(right, p.getField2(), child2.getTupleDesc());
+            pending = left.iterator();
+            probeChild = child1;
+        }
+    }
+
+    private HashMap<Field, ArrayList<Tuple>> hash(List<Tuple> tuples,
+            int field, TupleDesc desc) {
+        keyType = desc.getFieldType(field);
+        HashMap<Field, ArrayList<Tuple>> h = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : tuples) {
+            Field key = t.getField(field);
+            ArrayList<Tuple> bucket = h.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                h.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        return h;
+    }
+
+    /** Partitions everything read so far and the rest of both children. */
+    private void spill(List<Tuple> left, List<Tuple> right)
+        throws DbException, TransactionAbortedException {
+        try {
+            Partition[] parts = newPartitions(0);
+            partitions = new LinkedList<Partition>(Arrays.asList(parts));
+            for (Tuple t : left)
+                parts[partitionOf(t.getField(p.getField1()), 0)].left.add(t);
+            left.clear();
+            for (Tuple t : right)
+                parts[partitionOf(t.getField(p.getField2()), 0)].right.add(t);
+            right.clear();
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                parts[partitionOf(t.getField(p.getField1()), 0)].left.add(t);
+            }
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                parts[partitionOf(t.getField(p.getField2()), 0)].right.add(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not spill: " + e.getMessage());
+        }
+    }
+
+    private Partition[] newPartitions(int depth) throws IOException {
+        Partition[] parts = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            parts[i] = new Partition(child1.getTupleDesc(), child2.getTupleDesc(), depth);
+        }
+        return parts;
+    }
+
+    /** Splits a partition pair again, one level deeper. */
+    private void repartition(Partition part) throws IOException {
+        Partition[] parts = newPartitions(part.depth + 1);
+        // join these before moving on to the next pair
+        for (int i = FANOUT - 1; i >= 0; i--) {
+            partitions.addFirst(parts[i]);
+        }
+        SpillFile.Reader in = part.left.reader();
+        for (Tuple t = in.next(); t != null; t = in.next())
+            parts[partitionOf(t.getField(p.getField1()), part.depth + 1)].left.add(t);
+        in.close();
+        in = part.right.reader();
+        for (Tuple t = in.next(); t != null; t = in.next())
+            parts[partitionOf(t.getField(p.getField2()), part.depth + 1)].right.add(t);
+        in.close();
+        part.delete();
+    }
+
+    /**
+     * Loads the next pair of partitions that can produce output.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException {
+        finishPartition();
+        if (partitions == null)
+            return false;
+        try {
+            while (!partitions.isEmpty()) {
+                Partition part = partitions.removeFirst();
+                if (part.left.size() == 0 || part.right.size() == 0) {
+                    part.delete();
+                    continue;
+                }
+                buildLeft = part.left.bytes() <= part.right.bytes();
+                SpillFile build = buildLeft ? part.left : part.right;
+                if (build.bytes() > budget && part.depth < MAX_DEPTH) {
+                    repartition(part);
+                    continue;
+                }
+                ArrayList<Tuple> tuples = new ArrayList<Tuple>(build.size());
+                SpillFile.Reader in = build.reader();
+                for (Tuple t = in.next(); t != null; t = in.next())
+                    tuples.add(t);
+                in.close();
+                if (buildLeft)
+                    table = hash(tuples, p.getField1(), child1.getTupleDesc());
+                else
+                    table = hash(tuples, p.getField2(), child2.getTupleDesc());
+                current = part;
+                probeReader = (buildLeft ? part.right : part.left).reader();
+                return true;
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not read its spill files: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (pending != null && pending.hasNext())
+            return pending.next();
+        pending = null;
+        if (probeChild != null)
+            return probeChild.hasNext() ? probeChild.next() : null;
+        if (probeReader != null) {
+            try {
+                return probeReader.next();
+            } catch (IOException e) {
+                throw new DbException("hash join could not read its spill files: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private void finishPartition() {
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+            table = null;
+        }
+    }
+
+    /** Drops the hash table and deletes any spill files. */
+    private void release() {
+        finishPartition();
+        if (partitions != null) {
+            for (Partition part : partitions)
+                part.delete();
+            partitions = null;
+        }
+        table = null;
+        pending = null;
+        probeChild = null;
+        matches = null;
+        probe = null;
+    }
+
+    private static int partitionOf(Field key, int depth) {
+        return SpillFile.partitionOf(key, depth, FANOUT);
+    }
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,14 +13,42 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile keeps one {@link FileChannel} open on its backing file for its
+ * whole lifetime and reads and writes pages with positional I/O, so
+ * concurrent readers never share or move a file pointer.
+ * <p>
+ * A HeapFile opened in memory-mapped mode instead maps the file read-only in
+ * segments of {@link #MAP_SEGMENT_PAGES} pages and builds each HeapPage
+ * straight from a slice of the mapping, so reading a page copies nothing
+ * into the Java heap.  This suits read-mostly tables; writes still go
+ * through the channel and are seen through the mapping.
+ * <p>
+ * A slotted HeapFile stores its tuples in variable-length records, so a
+ * string takes only as many bytes as it has characters; see
+ * {@link HeapPage#createSlottedPageData} for the page format.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    private static final long serialVersionUID = 1L;
+
+    /** Default largest number of pages a scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD = 16;
+
+    /** Number of pages mapped at a time in memory-mapped mode. */
+    public static final int MAP_SEGMENT_PAGES = 16384;
+
     private File file;
     private TupleDesc tupleDesc;
+    private boolean mapped;
+    private boolean slotted;
+    private int readAhead = DEFAULT_READ_AHEAD;
+    private transient volatile FileChannel channel;
+    private transient volatile MappedByteBuffer[] segments;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -25,8 +57,55 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            if true, pages are read through a read-only memory mapping
+     *            of the file instead of being copied into the heap.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            if true, pages are read through a read-only memory mapping
+     *            of the file instead of being copied into the heap.
+     * @param slotted
+     *            if true, the pages of the file hold variable-length records
+     *            instead of fixed-size slots.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, boolean slotted) {
         this.file = f;
         this.tupleDesc = td;
+        this.mapped = mapped;
+        this.slotted = slotted;
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return true if the pages of this file hold variable-length records.
+     */
+    public boolean isSlotted() {
+        return slotted;
     }
 
     /**
@@ -61,28 +140,156 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
-    public Page readPage(PageId pid) {
-        try {
-            RandomAccessFile data = new RandomAccessFile(file, "r");
-            byte[] inData = new byte[BufferPool.PAGE_SIZE];
-            if (pid.pageNumber() > data.length()/(float)BufferPool.PAGE_SIZE) {
-                throw new IllegalArgumentException();
-            }
-            data.skipBytes(pid.pageNumber()*BufferPool.PAGE_SIZE);
-            data.read(inData,0,BufferPool.PAGE_SIZE);
-            data.close();
-            HeapPage rtn = new HeapPage((HeapPageId)pid, inData);
-            return rtn;
-        } catch (IOException e) {
-            return null;
+    public Page readPage(PageId pid) throws IOException {
+        if (mapped) {
+            checkPageNumber(pid);
+            return new HeapPage((HeapPageId)pid, mappedPage(pid.pageNumber()));
+        }
+        return new HeapPage((HeapPageId)pid, readPageData(pid));
+    }
+
+    /**
+     * Reads the bytes of a page of this file, for a subclass that builds
+     * pages of its own format from them.
+     *
+     * @throws IllegalArgumentException if the page does not exist
+     */
+    protected byte[] readPageData(PageId pid) throws IOException {
+        checkPageNumber(pid);
+        byte[] inData = new byte[BufferPool.PAGE_SIZE];
+        readFully(ByteBuffer.wrap(inData), pageOffset(pid.pageNumber()));
+        return inData;
+    }
+
+    private void checkPageNumber(PageId pid) {
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " does not exist in " + file);
         }
-        
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        writeFully(ByteBuffer.wrap(page.getPageData()), pageOffset(page.getId().pageNumber()));
+    }
+
+    /**
+     * Closes the channel on the backing file.  The channel is reopened on
+     * the next read or write, so this is safe to call on a file that may
+     * still be used.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        segments = null;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    private static long pageOffset(int pageNumber) {
+        return (long) pageNumber * BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the open channel on the backing file, opening it if needed.
+     * A channel closed underneath us (e.g. because another thread was
+     * interrupted during I/O) is transparently replaced.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = new RandomAccessFile(file, file.canWrite() ? "rw" : "r").getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns a read-only view of the given page in the file mapping,
+     * mapping its segment first if needed.
+     */
+    private ByteBuffer mappedPage(int pageNumber) throws IOException {
+        int seg = pageNumber / MAP_SEGMENT_PAGES;
+        int offset = (pageNumber % MAP_SEGMENT_PAGES) * BufferPool.PAGE_SIZE;
+        int end = offset + BufferPool.PAGE_SIZE;
+        MappedByteBuffer[] segs = segments;
+        if (segs == null || seg >= segs.length || segs[seg] == null
+                || segs[seg].capacity() < end) {
+            segs = mapSegment(seg, end);
+        }
+        ByteBuffer page = segs[seg].duplicate();
+        page.limit(end);
+        page.position(offset);
+        return page.slice();
+    }
+
+    /**
+     * Maps segment seg, or remaps it if the file has grown past the end of
+     * its current mapping.  The last segment only covers the file as it is
+     * now, so it is remapped as pages are appended.
+     */
+    private synchronized MappedByteBuffer[] mapSegment(int seg, int needed)
+        throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (segs != null && seg < segs.length && segs[seg] != null
+                && segs[seg].capacity() >= needed) {
+            return segs;
+        }
+        long start = (long) seg * MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+        long size = Math.min((long) MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE,
+                file.length() - start);
+        if (size < needed) {
+            throw new EOFException("short mapping at offset " + start + " of " + file);
+        }
+        MappedByteBuffer buf = channel().map(FileChannel.MapMode.READ_ONLY, start, size);
+        MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(seg + 1,
+                segs == null ? 0 : segs.length)];
+        if (segs != null) {
+            System.arraycopy(segs, 0, grown, 0, segs.length);
+        }
+        grown[seg] = buf;
+        segments = grown;
+        return grown;
+    }
+
+    /**
+     * Fills buf from the file starting at pos, looping over short reads.
+     * @throws EOFException if the file ends before buf is full
+     */
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        boolean retried = false;
+        while (buf.hasRemaining()) {
+            try {
+                int n = channel().read(buf, pos + buf.position());
+                if (n < 0) {
+                    throw new EOFException("short read at offset " + pos + " of " + file);
+                }
+            } catch (ClosedChannelException e) {
+                if (retried || Thread.currentThread().isInterrupted())
+                    throw e;
+                retried = true;
+            }
+        }
+    }
+
+    /** Writes all of buf to the file starting at pos. */
+    private void writeFully(ByteBuffer buf, long pos) throws IOException {
+        boolean retried = false;
+        while (buf.hasRemaining()) {
+            try {
+                channel().write(buf, pos + buf.position());
+            } catch (ClosedChannelException e) {
+                if (retried || Thread.currentThread().isInterrupted())
+                    throw e;
+                retried = true;
+            }
+        }
     }
 
     /**
@@ -103,7 +310,17 @@ public class HeapFile implements DbFile {
       ArrayList<Page> pages = new ArrayList<Page>();
       for (int i = 0; i < numPages(); i++) {
         PageId pid = new HeapPageId(getId(), i);
-        HeapPage page = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
+        // look for free space under a shared lock, and give the lock back
+        // on full pages we had not locked before
+        boolean held = bufferpool.holdsLock(tid, pid);
+        TuplePage page = (TuplePage) bufferpool.getPage(tid, pid, Permissions.READ_ONLY);
+        if (page.getNumEmptySlots() == 0) {
+          if (!held && tid != null) {
+            bufferpool.releasePage(tid, pid);
+          }
+          continue;
+        }
+        page = (TuplePage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
         if (page.getNumEmptySlots() != 0) {
           page.insertTuple(t);
           pages.add(page);
@@ -113,17 +330,8 @@ public class HeapFile implements DbFile {
       if (pages.isEmpty()) {
         PageId pid = new HeapPageId(getId(), numPages());
         
-        try {
-          byte[] bytes = HeapPage.createEmptyPageData();
-          RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
-          file.seek(pid.pageNumber()*BufferPool.PAGE_SIZE);
-          file.write(bytes);
-          file.close();
-        } catch (FileNotFoundException e) {
-          //do nothing
-          e.printStackTrace();
-        }
-        HeapPage page = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
+        writeFully(ByteBuffer.wrap(HeapPage.createEmptyPageData()), pageOffset(pid.pageNumber()));
+        TuplePage page = (TuplePage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
         page.insertTuple(t);
         pages.add(page);      
       }
@@ -137,90 +345,207 @@ public class HeapFile implements DbFile {
         // some code goes here
       BufferPool bufferpool = Database.getBufferPool();
       PageId pid = t.getRecordId().getPageId();
-      HeapPage page = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
+      TuplePage page = (TuplePage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
       page.deleteTuple(t);
       return page;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        final TransactionId tranId = tid;
-        
-        DbFileIterator it = new DbFileIterator() {
-            BufferPool bufferPool = Database.getBufferPool();
-            Iterator<Tuple> pageitr;
-            int pageNumber = 0;
-            int hasOpen = 0;
-              /**
-             * Opens the iterator
-             * @throws DbException when there are problems opening/accessing the database.
-             */
-            @Override
-            public void open()
-                throws DbException, TransactionAbortedException {
-                PageId pid = new HeapPageId(getId(), 0);
-                Page page = bufferPool.getPage(tranId, pid, Permissions.READ_ONLY);
-                pageitr = ((HeapPage) page).iterator();
-                hasOpen = 1;
-            }
+        return new HeapFileIterator(tid, 0, -1, new Predicate[0], null);
+    }
 
-            /** @return true if there are more tuples available. */
-            @Override
-            public boolean hasNext()
-                throws DbException, TransactionAbortedException{
-                if (hasOpen == 1) {
-                    if (pageNumber >= (file.length()/BufferPool.PAGE_SIZE)-1 && !pageitr.hasNext()) {
-                        return false;
-                    }
-                    return true;
-                }
+    /**
+     * Returns an iterator over the tuples of this file that satisfy every
+     * given predicate.  The predicates are evaluated on the bytes of each
+     * page, so only the tuples that qualify are materialized.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(tid, 0, -1, predicates.clone(), null);
+    }
+
+    /**
+     * Returns an iterator over the given columns of the tuples of this file
+     * that satisfy every given predicate.  Only those columns are decoded,
+     * and the returned tuples hold just them, in the order given.
+     *
+     * @see TupleDesc#project
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates,
+            int[] columns) {
+        return new HeapFileIterator(tid, 0, -1, predicates.clone(), columns.clone());
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages first through end - 1 of
+     * this file, so that several threads can scan disjoint parts of it.
+     *
+     * @param first the first page to read
+     * @param end one past the last page to read; pages past the end of the
+     *   file are skipped
+     */
+    public DbFileIterator iterator(TransactionId tid, int first, int end) {
+        return iterator(tid, first, end, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages first through end - 1 of
+     * this file that satisfy every given predicate.
+     *
+     * @see #iterator(TransactionId, int, int)
+     * @see #iterator(TransactionId, Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int first, int end,
+            Predicate[] predicates) {
+        if (first < 0 || end < first)
+            throw new IllegalArgumentException("bad page range " + first + ".." + end);
+        return new HeapFileIterator(tid, first, end, predicates.clone(), null);
+    }
+
+    /**
+     * Sets the largest number of pages a scan of this file reads ahead of
+     * the page it is on.  0 disables read-ahead.
+     */
+    public void setReadAhead(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("negative read-ahead");
+        this.readAhead = pages;
+    }
+
+    /** @return the largest read-ahead window of a scan of this file */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Iterates over the tuples of the file page by page.  A scan of a file
+     * larger than a quarter of the BufferPool reads through a
+     * {@link BufferRing} of its own, so it does not flush the shared pool.
+     * Once the scan has
+     * moved on to a second page it starts asking the BufferPool to prefetch
+     * the pages ahead of it.  The window starts small and doubles whenever
+     * the scan catches up with a page that is still being read, up to the
+     * file's read-ahead limit and a quarter of the pool; it is halved when a
+     * prefetched page is evicted before the scan gets to it.
+     */
+    class HeapFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        // page range to scan; end is -1 to scan to the end of the file
+        private final int first;
+        private final int end;
+        private final Predicate[] predicates;
+        // the columns to decode, or null for all of them
+        private final int[] columns;
+        private transient BufferPool bufferPool;
+        private transient Iterator<Tuple> pageItr;
+        private transient BufferRing ring;
+        private int pageNumber;
+        private boolean open;
+        // read-ahead window, and the first page not yet prefetched
+        private int window;
+        private int prefetchedTo;
+
+        HeapFileIterator(TransactionId tid, int first, int end,
+                Predicate[] predicates, int[] columns) {
+            this.tid = tid;
+            this.first = first;
+            this.end = end;
+            this.predicates = predicates;
+            this.columns = columns;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            bufferPool = Database.getBufferPool();
+            ring = null;
+            if (endPage() - first > bufferPool.getNumPages() / 4)
+                ring = bufferPool.newRing();
+            pageItr = null;
+            pageNumber = first - 1;
+            window = 0;
+            prefetchedTo = first;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
                 return false;
+            // skip over empty pages
+            while (pageItr == null || !pageItr.hasNext()) {
+                if (pageNumber + 1 >= endPage())
+                    return false;
+                nextPage();
             }
-            /**
-             * Gets the next tuple from the operator (typically implementing by reading
-             * from a child operator or an access method).
-             *
-             * @return The next tuple in the iterator.
-             * @throws NoSuchElementException if there are no more tuples
-             */
-            @Override
-            public Tuple next()
-                throws DbException, TransactionAbortedException, NoSuchElementException {
-                if (!hasNext()) {
-                    throw new NoSuchElementException();
-                }
-                if (pageitr.hasNext()) {
-                    return pageitr.next();
-                } else if (pageNumber == file.length()/BufferPool.PAGE_SIZE-1) { 
-                    throw new NoSuchElementException();
-                } else {
-                    pageNumber++;
-                    PageId pid = new HeapPageId(getId(), pageNumber);
-                    Page page = bufferPool.getPage(tranId, pid, Permissions.READ_ONLY);
-                    pageitr = ((HeapPage) page).iterator();
-                    return pageitr.next();
+            return true;
+        }
+
+        public Tuple next()
+            throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return pageItr.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            if (open && ring != null)
+                bufferPool.releaseRing(ring);
+            open = false;
+            pageItr = null;
+        }
+
+        /**
+         * @return the ring the last scan read through, or null if it used
+         *   the shared pool
+         */
+        BufferRing getRing() {
+            return ring;
+        }
+
+        private void nextPage() throws DbException, TransactionAbortedException {
+            pageNumber++;
+            PageId pid = new HeapPageId(getId(), pageNumber);
+            if (pageNumber < prefetchedTo) {
+                if (bufferPool.isLoading(pid)) {
+                    // we are reading faster than the prefetches complete
+                    window = Math.min(window * 2, maxWindow());
+                } else if (!bufferPool.isResident(pid)) {
+                    // the pool is too small to hold the window
+                    window = Math.max(1, window / 2);
                 }
+            } else if (pageNumber == first + 1 && window == 0) {
+                window = Math.min(2, maxWindow());
             }
+            readAhead();
+            Page page = bufferPool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+            pageItr = ((TuplePage) page).iterator(predicates, columns);
+        }
 
-            /**
-             * Resets the iterator to the start.
-             * @throws DbException When rewind is unsupported.
-             */
-            @Override
-            public void rewind() throws DbException, TransactionAbortedException {
-                this.open();
+        private void readAhead() {
+            int to = Math.min(pageNumber + 1 + window, endPage());
+            for (int i = Math.max(prefetchedTo, pageNumber + 1); i < to; i++) {
+                bufferPool.prefetchPage(new HeapPageId(getId(), i), ring);
             }
+            prefetchedTo = Math.max(prefetchedTo, to);
+        }
 
-            @Override
-            public void close(){
-                hasOpen = 0;
-                Iterator<Tuple> pageitr = null;
-                int pageNumber = 0;
-            }
-        };
-        return it;
+        private int endPage() {
+            return end < 0 ? numPages() : Math.min(end, numPages());
+        }
+
+        private int maxWindow() {
+            // leave the ring room for the page being read
+            if (ring != null)
+                return Math.min(readAhead, ring.getCapacity() / 2);
+            return Math.min(readAhead, bufferPool.getNumPages() / 4);
+        }
     }
-      
 
 }
 
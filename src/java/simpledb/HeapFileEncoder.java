@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -223,4 +225,118 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file, like
+   * {@link #convert(File, File, int, int, Type[], char)}, optionally in the
+   * slotted page format, where each string takes only its own length.
+   *
+   * @param slotted if true, write slotted pages for a HeapFile opened with
+   *   {@link HeapFile#isSlotted} set
+   * @see HeapPage#createSlottedPageData
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean slotted)
+      throws IOException {
+      if (!slotted) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+
+      ArrayList<byte[]> records = new ArrayList<byte[]>();
+      int recordBytes = 0;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          Tuple t = parseLine(line, td, separator);
+          if (t == null)
+              continue;
+          byte[] record = HeapPage.encodeRecord(t);
+
+          // start a new page when this record does not fit
+          if (!HeapPage.fitsSlottedPage(records.size() + 1, recordBytes + record.length, npagebytes)) {
+              os.write(HeapPage.createSlottedPageData(records.toArray(new byte[0][]), records.size(), npagebytes));
+              npages++;
+              records.clear();
+              recordBytes = 0;
+          }
+          records.add(record);
+          recordBytes += record.length;
+      }
+
+      // as above, an empty file still gets an empty page
+      if (records.size() > 0 || npages == 0)
+          os.write(HeapPage.createSlottedPageData(records.toArray(new byte[0][]), records.size(), npagebytes));
+      br.close();
+      os.close();
+  }
+
+  /** Convert the specified input text file, in the format read by
+   * {@link #convert(File, File, int, int, Type[], char)}, into a binary
+   * page file of {@link PaxPage}s for a {@link PaxFile}.
+   *
+   * @see PaxPage
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      int nrecords = PaxPage.getNumSlots(td, npagebytes);
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+
+      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          Tuple t = parseLine(line, td, separator);
+          if (t == null)
+              continue;
+          tuples.add(t);
+          if (tuples.size() == nrecords) {
+              os.write(PaxPage.createPageData(td, tuples, npagebytes));
+              npages++;
+              tuples.clear();
+          }
+      }
+
+      // as above, an empty file still gets an empty page
+      if (tuples.size() > 0 || npages == 0)
+          os.write(PaxPage.createPageData(td, tuples, npagebytes));
+      br.close();
+      os.close();
+  }
+
+  /**
+   * @return the tuple of schema td on a line of text, or null if the line
+   *   is blank or has too few fields
+   */
+  private static Tuple parseLine(String line, TupleDesc td, String separator) {
+      if (line.trim().length() == 0)
+          return null;
+      String[] values = line.split(separator, -1);
+      if (values.length < td.numFields()) {
+          System.out.println ("BAD LINE : " + line);
+          return null;
+      }
+      Tuple t = Tuple.compact(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = values[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setInt(i, Integer.parseInt(s));
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+              }
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
+  }
 }
@@ -3,24 +3,57 @@ package simpledb;
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes a tuple only when it
+ * is asked for one.  {@link #getInt} and {@link #getField} read a single
+ * field of a slot straight from the bytes, so a {@link Predicate} can be
+ * evaluated on a slot without materializing its tuple.
+ * <p>
+ * The pages of a {@link HeapFile#isSlotted slotted} file hold
+ * variable-length records instead of fixed-size slots: a slot directory
+ * at the start of the page points at records packed from the end of the
+ * page, and a string takes only its own length.  See
+ * {@link #createSlottedPageData} for the format.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     private HeapPageId pid;
     private TupleDesc td;
     private byte header[];
-    private Tuple tuples[];
+    // the bytes the page was read from; the slots whose tuples have not
+    // been materialized are decoded from here
+    private ByteBuffer raw;
+    // the materialized tuple of each slot, or null if it is empty or has
+    // not been decoded yet
+    private AtomicReferenceArray<Tuple> tuples;
     private int numSlots;
+    private int tupleSize;
+
+    // whether the page is in the slotted format; the header then lives in
+    // memory only, and these hold where the record of each slot is in raw
+    // (0 if it is empty or was inserted since) and how long it is
+    private final boolean slotted;
+    private int[] recordOffsets;
+    private int[] recordLengths;
+    // the total length of the records on a slotted page
+    private int usedBytes;
+
+    private static final int SLOT_DIR_START = 2;
+    private static final int SLOT_ENTRY_SIZE = 4;
 
     private byte[] oldData;
+    // on-disk bytes standing in for oldData until the page is first dirtied
+    private ByteBuffer source;
 
     private TransactionId lastTid;
     private boolean dirty;
@@ -42,28 +75,43 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+        // nothing writes the copy, so it is the before image as well
+        oldData = source.array();
+        source = null;
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's on-disk bytes,
+     * typically a slice of a memory-mapped file.  The page is decoded
+     * lazily from the buffer without copying it, and the buffer doubles
+     * as the before image until the page is first marked dirty, so it must
+     * not change before then.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        DbFile file = Database.getCatalog().getDbFile(id.getTableId());
+        this.slotted = file instanceof HeapFile && ((HeapFile) file).isSlotted();
+        this.numSlots = slotted ? getSlottedCapacity(td) : getNumTuples();
+        this.source = data.slice();
+        this.raw = data.slice();
+        this.tupleSize = td.getSize();
         lastTid = null;
         dirty = false;
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (raw.remaining() < BufferPool.PAGE_SIZE)
+            throw new IOException("short page " + id + ": " + raw.remaining() + " bytes");
+        // read the header slots of this page; the records are decoded as
+        // they are asked for
+        if (slotted) {
+            readSlotDirectory();
+        } else {
+            header = new byte[getHeaderSize()];
+            raw.get(header);
         }
-        dis.close();
-
-        setBeforeImage();
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -74,6 +122,38 @@ public class HeapPage implements Page {
         return tupsPerPage;
     }
 
+    /**
+     * @return the most records a slotted page of the given schema can hold,
+     *         which it does when every string is empty
+     */
+    private static int getSlottedCapacity(TupleDesc td) {
+        int minRecord = 0;
+        for (int j=0; j<td.numFields(); j++)
+            minRecord += td.getFieldType(j) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 2;
+        return (BufferPool.PAGE_SIZE - SLOT_DIR_START) / (SLOT_ENTRY_SIZE + minRecord);
+    }
+
+    private void readSlotDirectory() throws IOException {
+        header = new byte[(numSlots + 7) / 8];
+        recordOffsets = new int[numSlots];
+        recordLengths = new int[numSlots];
+        int entries = raw.getChar(0);
+        if (entries > numSlots)
+            throw new IOException("bad slot directory on " + pid + ": " + entries + " entries");
+        for (int i=0; i<entries; i++) {
+            int off = raw.getChar(SLOT_DIR_START + i * SLOT_ENTRY_SIZE);
+            int len = raw.getChar(SLOT_DIR_START + i * SLOT_ENTRY_SIZE + 2);
+            if (off == 0)
+                continue;
+            if (off + len > BufferPool.PAGE_SIZE)
+                throw new IOException("bad record in slot " + i + " of " + pid);
+            recordOffsets[i] = off;
+            recordLengths[i] = len;
+            usedBytes += len;
+            markSlotUsed(i, true);
+        }
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -89,6 +169,8 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
+            if (oldData == null)
+                return new HeapPage(pid, source);
             return new HeapPage(pid,oldData);
         } catch (IOException e) {
             e.printStackTrace();
@@ -100,6 +182,7 @@ public class HeapPage implements Page {
     
     public void setBeforeImage() {
         oldData = getPageData().clone();
+        source = null;
     }
 
     /**
@@ -109,38 +192,98 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the schema of the tuples on this page */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, decoding it from the page's bytes the
+     * first time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    public Tuple getTuple(int slot) {
+        Tuple t = tuples.get(slot);
+        if (t != null || !isSlotUsed(slot))
+            return t;
+        t = Tuple.compact(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                t.setInt(j, raw.getInt(fieldOffset(slot, j)));
+            else
+                t.setField(j, readField(slot, j));
         }
+        // another reader may have decoded the slot first
+        if (!tuples.compareAndSet(slot, null, t))
+            t = tuples.get(slot);
+        return t;
+    }
+
+    /**
+     * Returns INT field col of the tuple in a used slot without
+     * materializing the tuple.
+     */
+    public int getInt(int slot, int col) {
+        Tuple t = tuples.get(slot);
+        if (t != null)
+            return t.getInt(col);
+        return raw.getInt(fieldOffset(slot, col));
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Returns field col of the tuple in a used slot without materializing
+     * the rest of the tuple.
+     */
+    public Field getField(int slot, int col) {
+        Tuple t = tuples.get(slot);
+        if (t != null)
+            return t.getField(col);
+        return readField(slot, col);
+    }
+
+    private Field readField(int slot, int col) {
+        Type type = td.getFieldType(col);
+        int off = fieldOffset(slot, col);
+        if (type == Type.INT_TYPE)
+            return new IntField(raw.getInt(off));
+        ByteBuffer in = raw.duplicate();
+        if (slotted) {
+            byte[] s = new byte[in.getChar(off)];
+            in.position(off + 2);
+            in.get(s);
+            return new StringField(new String(s), Type.STRING_LEN);
+        }
+        in.position(off);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(new DataInputStream(new ByteBufferInputStream(in)));
         } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            throw new NoSuchElementException("parsing error in slot " + slot + " of " + pid);
         }
+    }
 
-        return t;
+    private int fieldOffset(int slot, int col) {
+        if (!slotted)
+            return header.length + slot * tupleSize + td.getOffset(col);
+        // the fields before col are of variable length
+        int off = recordOffsets[slot];
+        for (int j=0; j<col; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                off += Type.INT_TYPE.getLen();
+            else
+                off += 2 + raw.getChar(off);
+        }
+        return off;
+    }
+
+    /** @return true if the tuple in a used slot satisfies every predicate */
+    static boolean matches(TuplePage page, int slot, Predicate[] predicates) {
+        for (int i=0; i<predicates.length; i++) {
+            if (!predicates[i].filter(page, slot))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -155,6 +298,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted)
+            return getSlottedPageData();
         int len = BufferPool.PAGE_SIZE;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -170,7 +315,9 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] slotBytes = new byte[tupleSize];
+        ByteBuffer in = raw.duplicate();
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -185,11 +332,26 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // a slot that was never materialized still has its bytes
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                in.position(fieldOffset(i, 0));
+                in.get(slotBytes);
+                try {
+                    dos.write(slotBytes);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        dos.writeInt(t.getInt(j));
+                    else
+                        t.getField(j).serialize(dos);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -198,7 +360,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.PAGE_SIZE - (header.length + tupleSize * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -215,6 +377,116 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    private byte[] getSlottedPageData() {
+        int entries = getSlotDirectorySize();
+        byte[][] records = new byte[entries][];
+        ByteBuffer in = raw.duplicate();
+        for (int i=0; i<entries; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            if (recordOffsets[i] != 0) {
+                // the record is still in the bytes the page was read from
+                records[i] = new byte[recordLengths[i]];
+                in.position(recordOffsets[i]);
+                in.get(records[i]);
+            } else {
+                records[i] = encodeRecord(tuples.get(i));
+            }
+        }
+        return createSlottedPageData(records, entries, BufferPool.PAGE_SIZE);
+    }
+
+    /** @return the number of slot directory entries a slotted page needs */
+    private int getSlotDirectorySize() {
+        int n = numSlots;
+        while (n > 0 && !isSlotUsed(n - 1))
+            n--;
+        return n;
+    }
+
+    /**
+     * @return the length of the record of t on a slotted page: four bytes
+     *         for an int, and a two-byte length and the bytes of a string
+     */
+    static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                len += Type.INT_TYPE.getLen();
+            else
+                len += 2 + Math.min(t.getString(j).length(), Type.STRING_LEN);
+        }
+        return len;
+    }
+
+    /**
+     * @return the record of t on a slotted page
+     * @see #recordLength
+     */
+    static byte[] encodeRecord(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordLength(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    dos.writeInt(t.getInt(j));
+                } else {
+                    String s = t.getString(j);
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Generates the bytes of a slotted page.  The page starts with the
+     * number of slot directory entries as an unsigned short, followed by
+     * an entry for each slot: the offset and the length of its record,
+     * both unsigned shorts, with an offset of 0 for an empty slot.  The
+     * records are packed from the end of the page.  An all-zero page is an
+     * empty slotted page.
+     *
+     * @param records the record of each slot, or null for an empty slot
+     * @param entries the number of slots
+     * @param pageSize the number of bytes in a page, at most 65536
+     * @throws IllegalArgumentException if the records do not fit on a page
+     * @see #encodeRecord
+     */
+    static byte[] createSlottedPageData(byte[][] records, int entries, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        int end = data.length;
+        out.putChar(0, (char) entries);
+        for (int i=0; i<entries; i++) {
+            if (records[i] == null)
+                continue;
+            end -= records[i].length;
+            if (end < SLOT_DIR_START + entries * SLOT_ENTRY_SIZE)
+                throw new IllegalArgumentException("records do not fit on a page");
+            System.arraycopy(records[i], 0, data, end, records[i].length);
+            out.putChar(SLOT_DIR_START + i * SLOT_ENTRY_SIZE, (char) end);
+            out.putChar(SLOT_DIR_START + i * SLOT_ENTRY_SIZE + 2, (char) records[i].length);
+        }
+        return data;
+    }
+
+    /**
+     * @return true if a slotted page with the given number of slot
+     *         directory entries and total record length has room for them
+     */
+    static boolean fitsSlottedPage(int entries, int recordBytes, int pageSize) {
+        return SLOT_DIR_START + entries * SLOT_ENTRY_SIZE + recordBytes <= pageSize;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -247,7 +519,12 @@ public class HeapPage implements Page {
         throw new DbException("Tuple slot is already empty");
       }
       markSlotUsed(tupleno, false); 
-      tuples[tupleno] = null;
+      tuples.set(tupleno, null);
+      if (slotted) {
+        usedBytes -= recordLengths[tupleno];
+        recordOffsets[tupleno] = 0;
+        recordLengths[tupleno] = 0;
+      }
       t.setRecordId(null);
     }
 
@@ -267,9 +544,18 @@ public class HeapPage implements Page {
       if (!t.getTupleDesc().equals(td)) {
         throw new DbException("tupledesc is not correct");
       }
-      for (int i = 0; i < getNumTuples(); i++) {
+      for (int i = 0; i < numSlots; i++) {
         if (!isSlotUsed(i)) {
-          tuples[i] = t;
+          if (slotted) {
+            int len = recordLength(t);
+            int entries = Math.max(getSlotDirectorySize(), i + 1);
+            if (!fitsSlottedPage(entries, usedBytes + len, BufferPool.PAGE_SIZE))
+              throw new DbException("Page is full");
+            usedBytes += len;
+            recordOffsets[i] = 0;
+            recordLengths[i] = len;
+          }
+          tuples.set(i, t);
           markSlotUsed(i, true);
           t.setRecordId(new RecordId(getId(), i));
           break;
@@ -284,6 +570,15 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
       // not necessary for lab1
+      if (dirty && oldData == null) {
+        // the buffer may be a live view of the file; copy the before image
+        // out before this page can be written back, and decode the slots
+        // not yet materialized from the copy from now on
+        oldData = new byte[source.remaining()];
+        source.duplicate().get(oldData);
+        source = null;
+        raw = ByteBuffer.wrap(oldData);
+      }
       lastTid = tid;
       this.dirty = dirty;
     }
@@ -301,16 +596,24 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page.  On a slotted page,
+     * this is the number of tuples of the largest size that still fit.
      */
     public int getNumEmptySlots() {
-        int counter = 0;
-        for (int i = 0; i < getNumTuples(); i++) {
-            if (((header[i/8]>>(i%8))&0x1)==0x0) {
-                counter++;
-            }
+        if (slotted) {
+            int free = BufferPool.PAGE_SIZE - SLOT_DIR_START
+                - getSlotDirectorySize() * SLOT_ENTRY_SIZE - usedBytes;
+            return Math.max(0, free) / (SLOT_ENTRY_SIZE + tupleSize);
+        }
+        int used = 0;
+        for (int i = 0; i < header.length; i++) {
+            int bits = header[i] & 0xff;
+            // ignore the bits past the last slot
+            if (i == header.length - 1 && numSlots % 8 != 0)
+                bits &= (1 << (numSlots % 8)) - 1;
+            used += Integer.bitCount(bits);
         }
-        return counter;
+        return numSlots - used;
     }
 
     /**
@@ -343,33 +646,97 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        Iterator<Tuple> it = new Iterator<Tuple>() {
+        return iterator(new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy every
+     * given predicate.  The predicates are evaluated on the page's bytes,
+     * so only the tuples that qualify are materialized.
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        return iterator(predicates, null);
+    }
+
+    public Iterator<Tuple> iterator(final Predicate[] predicates, final int[] columns) {
+        final TupleDesc projected = columns == null ? null : td.project(columns);
+        return new Iterator<Tuple>() {
 
-            private int numTuple = 0;
-            private int currentIndex = -1;
+            // the slot of next, or the last slot looked at
+            private int slot = -1;
+            private Tuple next;
 
-            @Override
             public boolean hasNext() {
-                return numTuple < getNumTuples()-getNumEmptySlots();
+                while (next == null && slot + 1 < numSlots) {
+                    slot++;
+                    if (isSlotUsed(slot) && matches(HeapPage.this, slot, predicates))
+                        next = columns == null ? getTuple(slot)
+                            : project(HeapPage.this, slot, columns, projected);
+                }
+                return next != null;
             }
 
-            @Override
             public Tuple next() {
-                if (isSlotUsed(++currentIndex)) {
-                    numTuple++;
-                    return tuples[currentIndex];
-                } else {
-                    return this.next();
-                }
-    
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = null;
+                return t;
             }
 
-            @Override
             public void remove() {
                 throw new UnsupportedOperationException();
             }
         };
-        return it;
+    }
+
+    /**
+     * @return a new compact tuple of schema td holding the given columns
+     *         of the tuple in a used slot of a page
+     */
+    static Tuple project(TuplePage page, int slot, int[] columns, TupleDesc td) {
+        Tuple t = Tuple.compact(td);
+        t.setRecordId(new RecordId(page.getId(), slot));
+        for (int i=0; i<columns.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                t.setInt(i, page.getInt(slot, columns[i]));
+            else
+                t.setField(i, page.getField(slot, columns[i]));
+        }
+        return t;
+    }
+
+    /** Reads a ByteBuffer as a stream without copying it. */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + k);
+            return k;
+        }
+
+        public int available() {
+            return buf.remaining();
+        }
     }
 
 }
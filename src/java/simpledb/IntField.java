@@ -48,29 +48,34 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two ints the way IntFields holding them compare, for code
+     * that works on ints without wrapping them.
+     */
+    public static boolean compare(int a, Predicate.Op op, int b) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return a == b;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return a != b;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return a > b;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return a >= b;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return a < b;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return a <= b;
 
     case LIKE:
-        return value == iVal.value;
+        return a == b;
         }
 
         return false;
@@ -1,34 +1,47 @@
 package simpledb;
 
-import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups live in an open-addressing hash table with linear probing.  The
+ * table maps a slot to the number of a group, and groups are numbered in the
+ * order they are first seen; an INT group-by value is kept as a plain int.
+ * Each group has one long accumulator, or two for AVG (the sum and the
+ * count), so merging a tuple allocates nothing.  AVG is divided out only
+ * when the results are read.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
     private Op what;
     private TupleDesc td;
-  
-    private Map<Field, Integer> count;
-    private Map<Field, Integer> sum;
-    private Map<Field, Integer> avg;
-    private Map<Field, Integer> min;
-    private Map<Field, Integer> max;
-
-    private int groupCount;
+
+    // accumulators per group: the value of the aggregate, then the count
+    // for AVG
+    private final int width;
+    private long[] acc;
+    // group-by values by group number: ints for an INT group-by field,
+    // Fields otherwise
+    private int[] intKeys;
+    private Field[] keys;
+    private int groups;
+    // slot -> group number + 1, or 0 if the slot is empty
+    private int[] slots;
+    private int mask;
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -42,105 +55,255 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
         this.td = buildTupleDesc();
 
-        this.count = new HashMap<Field, Integer>();
-        this.sum = new HashMap<Field, Integer>();
-        this.avg = new HashMap<Field, Integer>();
-        this.min = new HashMap<Field, Integer>();
-        this.max = new HashMap<Field, Integer>();
-
-        this.groupCount = 0;
+        this.width = what == Op.AVG ? 2 : 1;
+        this.acc = new long[INITIAL_CAPACITY * width];
+        if (gbfieldtype == Type.INT_TYPE)
+            this.intKeys = new int[INITIAL_CAPACITY];
+        else
+            this.keys = new Field[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.mask = slots.length - 1;
+        this.groups = 0;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-        int aggFieldValue = ((IntField)tup.getField(afield)).getValue();
-        Field groupfield = null;
-        if (gbfieldtype != null) {
-          groupfield = tup.getField(gbfield);
+        int g;
+        if (gbfieldtype == null) {
+            g = groups == 0 ? newGroup(-1, 0, null) : 0;
+        } else if (intKeys != null) {
+            g = findGroup(tup.getInt(gbfield), true);
+        } else {
+            g = findGroup(tup.getField(gbfield), true);
+        }
+        merge(g, tup);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int g;
+        if (gbfieldtype == null)
+            g = groups == 0 ? -1 : 0;
+        else if (intKeys != null)
+            g = findGroup(tup.getInt(gbfield), false);
+        else
+            g = findGroup(tup.getField(gbfield), false);
+        if (g < 0)
+            return false;
+        merge(g, tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return groups;
+    }
+
+    public void combine(Aggregator other) {
+        IntegerAggregator o = (IntegerAggregator) other;
+        for (int og = 0; og < o.groups; og++) {
+            int g;
+            if (gbfieldtype == null)
+                g = groups == 0 ? newGroup(-1, 0, null) : 0;
+            else if (intKeys != null)
+                g = findGroup(o.intKeys[og], true);
+            else
+                g = findGroup(o.keys[og], true);
+            combine(g, o.acc, og * width);
+        }
+    }
+
+    /** Adds the accumulators at from[off] to those of group g. */
+    private void combine(int g, long[] from, int off) {
+        int a = g * width;
+        switch (what) {
+        case COUNT:
+        case SUM:
+            acc[a] += from[off];
+            break;
+        case AVG:
+            acc[a] += from[off];
+            acc[a + 1] += from[off + 1];
+            break;
+        case MIN:
+            acc[a] = Math.min(acc[a], from[off]);
+            break;
+        case MAX:
+            acc[a] = Math.max(acc[a], from[off]);
+            break;
         }
-        if (count.containsKey(groupfield)) {
-          groupCount += 1;
-          count.put(groupfield, count.get(groupfield) + 1);
-          sum.put(groupfield, sum.get(groupfield) + aggFieldValue);
-          avg.put(groupfield, sum.get(groupfield) / groupCount);
-          min.put(groupfield, Math.min(min.get(groupfield), aggFieldValue));
-          max.put(groupfield, Math.max(max.get(groupfield), aggFieldValue));
+    }
+
+    /**
+     * Merges the selected rows of a batch into the aggregate, as
+     * {@link #mergeTupleIntoGroup} does a tuple, reading the aggregate
+     * field and an INT group-by field straight from the batch's int vectors.
+     */
+    public void mergeBatch(TupleBatch b) {
+        int n = b.size();
+        int[] values = b.intColumn(afield);
+        if (gbfieldtype == null) {
+            int g = groups == 0 ? newGroup(-1, 0, null) : 0;
+            for (int i = 0; i < n; i++)
+                merge(g, values[b.row(i)]);
+        } else if (intKeys != null) {
+            int[] gvalues = b.intColumn(gbfield);
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                merge(findGroup(gvalues[r], true), values[r]);
+            }
         } else {
-          groupCount = 1;
-          count.put(groupfield, 1);
-          sum.put(groupfield, aggFieldValue);
-          avg.put(groupfield, aggFieldValue);
-          min.put(groupfield, aggFieldValue);
-          max.put(groupfield, aggFieldValue);
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                merge(findGroup(b.getField(gbfield, r), true), values[r]);
+            }
         }
     }
 
+    private void merge(int g, Tuple tup) {
+        merge(g, tup.getInt(afield));
+    }
+
+    private void merge(int g, long value) {
+        int a = g * width;
+        switch (what) {
+        case COUNT:
+            acc[a]++;
+            break;
+        case SUM:
+            acc[a] += value;
+            break;
+        case AVG:
+            acc[a] += value;
+            acc[a + 1]++;
+            break;
+        case MIN:
+            if (value < acc[a])
+                acc[a] = value;
+            break;
+        case MAX:
+            if (value > acc[a])
+                acc[a] = value;
+            break;
+        }
+    }
 
     /**
      * Create a DbIterator over group aggregate results.
-     * 
+     *
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
     public DbIterator iterator() {
-        // some code goes here
-      switch (what) {
-        case COUNT:
-          return getTupleIterator(count);
-        case SUM:
-          return getTupleIterator(sum);
-        case AVG:
-          return getTupleIterator(avg);
-        case MIN:
-          return getTupleIterator(min);
-        case MAX:
-          return getTupleIterator(max);
-        default:
-          return null;
-      }
+        List<Tuple> tupleList = new ArrayList<Tuple>(groups);
+        for (int g = 0; g < groups; g++) {
+            long v = acc[g * width];
+            if (what == Op.AVG)
+                v /= acc[g * width + 1];
+            Tuple tuple = new Tuple(td);
+            if (gbfieldtype == null) {
+                tuple.setField(0, new IntField((int) v));
+            } else {
+                tuple.setField(0, intKeys != null ? new IntField(intKeys[g]) : keys[g]);
+                tuple.setField(1, new IntField((int) v));
+            }
+            tupleList.add(tuple);
+        }
+        return new TupleIterator(td, tupleList);
     }
-    
+
     private TupleDesc buildTupleDesc() {
-      if (gbfieldtype == null) {
-        Type[] typeAr = new Type[]{Type.STRING_TYPE};
-        return new TupleDesc(typeAr);
-      } else {
-        Type[] typeAr = new Type[]{gbfieldtype, Type.INT_TYPE};
-        return new TupleDesc(typeAr);
-      }
-    }
-
-    private DbIterator getTupleIterator(Map<Field, Integer> map) {
-      Set<Field> fields = map.keySet();
-      Iterator<Field> fieldsIter = fields.iterator();
-      List<Tuple> tupleList = new ArrayList<Tuple>();
-      while(fieldsIter.hasNext()){
-        Tuple tuple = new Tuple(td);
-        Field key = (Field)fieldsIter.next();
-        if(gbfield == Aggregator.NO_GROUPING){
-          tuple.setField(0, new IntField(map.get(key)));
-        }else{
-          tuple.setField(0, key);
-          tuple.setField(1, new IntField(map.get(key)));
+        if (gbfieldtype == null) {
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        } else {
+            return new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+        }
+    }
+
+    /**
+     * @return the number of the group with the given value, or -1 if there
+     *         is none and create is false
+     */
+    private int findGroup(int key, boolean create) {
+        int h = mix(key) & mask;
+        while (true) {
+            int s = slots[h];
+            if (s == 0)
+                return create ? newGroup(h, key, null) : -1;
+            if (intKeys[s - 1] == key)
+                return s - 1;
+            h = (h + 1) & mask;
         }
-        tupleList.add(tuple);
-      }
-      return new TupleIterator(td, tupleList); 
+    }
+
+    private int findGroup(Field key, boolean create) {
+        int h = mix(key.hashCode()) & mask;
+        while (true) {
+            int s = slots[h];
+            if (s == 0)
+                return create ? newGroup(h, 0, key) : -1;
+            if (keys[s - 1].equals(key))
+                return s - 1;
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds a group in the given empty slot, growing the table if needed.
+     * The group-by value is intKey or key, depending on its type.
+     */
+    private int newGroup(int slot, int intKey, Field key) {
+        int g = groups++;
+        if (g == acc.length / width) {
+            int n = acc.length / width * 2;
+            acc = Arrays.copyOf(acc, n * width);
+            if (intKeys != null)
+                intKeys = Arrays.copyOf(intKeys, n);
+            else
+                keys = Arrays.copyOf(keys, n);
+        }
+        if (what == Op.MIN)
+            acc[g * width] = Long.MAX_VALUE;
+        else if (what == Op.MAX)
+            acc[g * width] = Long.MIN_VALUE;
+        if (gbfieldtype != null) {
+            if (intKeys != null)
+                intKeys[g] = intKey;
+            else
+                keys[g] = key;
+            slots[slot] = g + 1;
+            // keep the table at most half full
+            if (groups * 2 > slots.length)
+                rehash();
+        }
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int h = (intKeys != null ? mix(intKeys[g]) : mix(keys[g].hashCode())) & mask;
+            while (slots[h] != 0)
+                h = (h + 1) & mask;
+            slots[h] = g + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
@@ -3,9 +3,13 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation.  Read a batch
+ * at a time, it is a block nested loops join: each batch of child1 is
+ * joined with every batch of child2, and the joined rows are copied into
+ * an output batch.  Read a tuple at a time, the output tuples refer to the
+ * two joined tuples rather than copying their fields.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchIterator, RecyclingIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -13,6 +17,14 @@ public class Join extends Operator {
     private DbIterator child1;
     private DbIterator child2;
     private Tuple current;
+    private transient TupleDesc td;
+    // whether to return the same output tuple for every row
+    private boolean recycle;
+    private transient JoinedTuple recycled;
+    private transient TupleBatch buffer1, buffer2, out;
+    // the batches being joined, and the selected rows of each to resume at
+    private transient TupleBatch outer, inner;
+    private transient int outerPos, innerPos;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -73,7 +85,8 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
-        
+        td = getTupleDesc();
+        outer = inner = null;
     }
 
     public void close() {
@@ -88,6 +101,7 @@ public class Join extends Operator {
         child1.rewind();
         child2.rewind();
         current  = null;
+        outer = inner = null;
     }
 
     /**
@@ -114,14 +128,7 @@ public class Join extends Operator {
           while (current != null && child2.hasNext()) {
             Tuple tuple2 = child2.next();
             if (p.filter(current, tuple2)) {
-              Tuple target = new Tuple(TupleDesc.merge(current.getTupleDesc(), tuple2.getTupleDesc()));
-              for (int i = 0; i < current.getTupleDesc().numFields(); i++) {
-                target.setField(i, current.getField(i));
-              }
-              for (int j = 0; j < tuple2.getTupleDesc().numFields(); j++) {
-                target.setField(j + current.getTupleDesc().numFields(), tuple2.getField(j));
-              }
-              return target;
+              return merge(current, tuple2);
             }
           }
           child2.rewind();
@@ -132,6 +139,75 @@ public class Join extends Operator {
         }
     }
 
+    public void setRecycleOutput(boolean recycle) {
+        this.recycle = recycle;
+        recycled = null;
+    }
+
+    /**
+     * @return the output tuple for a left and a right tuple, which refers
+     *         to the two instead of copying their fields
+     */
+    private Tuple merge(Tuple left, Tuple right) {
+        if (!recycle)
+            return new JoinedTuple(td, left, right);
+        if (recycled == null)
+            recycled = new JoinedTuple(td, left.getTupleDesc().numFields());
+        recycled.set(left, right);
+        return recycled;
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (out == null) {
+            buffer1 = new TupleBatch(child1.getTupleDesc());
+            buffer2 = new TupleBatch(child2.getTupleDesc());
+            out = new TupleBatch(getTupleDesc());
+        }
+        out.clear();
+        while (!out.isFull()) {
+            if (outer == null) {
+                outer = TupleBatch.next(child1, buffer1);
+                if (outer == null)
+                    break;
+                child2.rewind();
+            }
+            if (inner == null) {
+                inner = TupleBatch.next(child2, buffer2);
+                if (inner == null) {
+                    outer = null;
+                    continue;
+                }
+                outerPos = innerPos = 0;
+            }
+            if (joinBatches())
+                break;
+            inner = null;
+        }
+        return out.rows() == 0 ? null : out;
+    }
+
+    /**
+     * Joins outer with inner into out, from where the last call stopped.
+     *
+     * @return true if out filled up before the pair of batches was done
+     */
+    private boolean joinBatches() {
+        for (; outerPos < outer.size(); outerPos++) {
+            int r1 = outer.row(outerPos);
+            for (; innerPos < inner.size(); innerPos++) {
+                int r2 = inner.row(innerPos);
+                if (p.filter(outer, r1, inner, r2)) {
+                    if (out.isFull())
+                        return true;
+                    out.addJoined(outer, r1, inner, r2);
+                }
+            }
+            innerPos = 0;
+        }
+        return false;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -143,6 +219,7 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        out = null;
     }
 
 }
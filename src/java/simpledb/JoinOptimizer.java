@@ -28,25 +28,12 @@ public class JoinOptimizer {
     }
 
     /**
-     * Return best iterator for computing a given logical join, given the
-     * specified statistics, and the provided left and right subplans. Note that
-     * there is insufficient information to determine which plan should be the
-     * inner/outer here -- because DbIterator's don't provide any cardinality
-     * estimates, and stats only has information about the base tables. For this
-     * reason, the plan1
-     * 
-     * @param lj
-     *            The join being considered
-     * @param plan1
-     *            The left join node's child
-     * @param plan2
-     *            The right join node's child
+     * Resolves the fields of a join node against the schemas of the plans
+     * for its two sides.
      */
-    public static DbIterator instantiateJoin(LogicalJoinNode lj,
-            DbIterator plan1, DbIterator plan2) throws ParsingException {
-
+    static JoinPredicate joinPredicate(LogicalJoinNode lj, DbIterator plan1,
+            DbIterator plan2) throws ParsingException {
         int t1id = 0, t2id = 0;
-        DbIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -66,14 +53,96 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
+
+    /** The cardinality taken for a join input with no estimate. */
+    static final int DEFAULT_INPUT_CARD = 1000;
 
-        j = new Join(p,plan1,plan2);
+    /**
+     * Return best iterator for computing a given logical join, given the
+     * specified statistics, and the provided left and right subplans. Note that
+     * there is insufficient information to determine which plan should be the
+     * inner/outer here -- because DbIterator's don't provide any cardinality
+     * estimates, and stats only has information about the base tables. For this
+     * reason, the plan1
+     * <p>
+     * With no estimates of its inputs, each is taken to hold
+     * {@link #DEFAULT_INPUT_CARD} tuples.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2,
+                DEFAULT_INPUT_CARD, DEFAULT_INPUT_CARD,
+                scanCost(DEFAULT_INPUT_CARD, plan1), scanCost(DEFAULT_INPUT_CARD, plan2));
+    }
+
+    /**
+     * Returns the join algorithm {@link #estimateJoinCost} finds cheapest
+     * for the given inputs, taking into account the inputs that are already
+     * sorted on their join fields.
+     *
+     * @see #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2,
+            double cost1, double cost2) throws ParsingException {
+
+        JoinPredicate p = joinPredicate(lj, plan1, plan2);
+        int t1id = p.getField1(), t2id = p.getField2();
+        DbIterator j;
+
+        boolean sorted1 = isSortedOn(plan1, t1id);
+        boolean sorted2 = isSortedOn(plan2, t2id);
+        // on a tie, the merge join needs no memory for a hash table or block
+        if (isMergeable(lj.p) && sortMergeJoinCost(card1, card2, cost1, cost2,
+                sorted1, sorted2) <= unsortedJoinCost(lj.p, card1, card2, cost1, cost2)) {
+            if (!sorted1)
+                plan1 = new OrderBy(t1id, true, plan1);
+            if (!sorted2)
+                plan2 = new OrderBy(t2id, true, plan2);
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashJoin(p, plan1, plan2);
+        } else {
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /** @return the cost of reading card tuples of plan's schema */
+    private static double scanCost(int card, DbIterator plan) {
+        double pages = Math.ceil((double) card * plan.getTupleDesc().getSize()
+                / BufferPool.PAGE_SIZE);
+        return Math.max(1, pages) * TableStats.IOCOSTPERPAGE;
+    }
+
+    /**
+     * Estimates the cardinality and cost of the output of a join in a
+     * physical plan, from those of its inputs, for choosing the algorithm
+     * of a join above it.
+     *
+     * @return the estimates, with no plan
+     */
+    CostCard estimateJoin(LogicalJoinNode j, CostCard in1, CostCard in2,
+            Map<String, TableStats> stats) {
+        CostCard cc = new CostCard();
+        cc.cost = estimateJoinCost(j, in1.card, in2.card, in1.cost, in2.cost);
+        cc.card = estimateJoinCardinality(j, in1.card, in2.card,
+                isPkey(j.t1Alias, j.f1PureName),
+                j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName), stats);
+        return cc;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -107,12 +176,98 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // the cheapest algorithm, as instantiateJoin picks it; neither
+            // side of a logical join is known to be sorted, so a merge join
+            // pays for sorting both
+            double cost = unsortedJoinCost(j.p, card1, card2, cost1, cost2);
+            if (isMergeable(j.p))
+                cost = Math.min(cost, sortMergeJoinCost(card1, card2, cost1,
+                        cost2, false, false));
+            return cost;
+        }
+    }
+
+    /**
+     * @return the cost of the join that does not need sorted inputs: a
+     *         {@link HashJoin} for an equality, and a
+     *         {@link BlockNestedLoopJoin} otherwise
+     */
+    private static double unsortedJoinCost(Predicate.Op op, int card1,
+            int card2, double cost1, double cost2) {
+        if (op == Predicate.Op.EQUALS)
+            return hashJoinCost(card1, card2, cost1, cost2);
+        return blockNestedLoopJoinCost(card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Cost of a {@link BlockNestedLoopJoin} with the default block size: the
+     * inner input is scanned once for every block of outer pages, and every
+     * pair is compared.  The outer input is taken to span as many pages as
+     * its cost pays for.
+     */
+    static double blockNestedLoopJoinCost(int card1, int card2, double cost1,
+            double cost2) {
+        double pages1 = cost1 / TableStats.IOCOSTPERPAGE;
+        double blocks = Math.max(1,
+                Math.ceil(pages1 / BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Cost of a {@link HashJoin}: each input is read once, and each tuple is
+     * either hashed or probed.
+     */
+    static double hashJoinCost(int card1, int card2, double cost1,
+            double cost2) {
+        return cost1 + cost2 + card1 + card2;
+    }
+
+    /**
+     * Cost of a {@link SortMergeJoin}: each input is read once, the inputs
+     * that are not sorted already are sorted, and the merge compares each
+     * tuple about once.
+     */
+    static double sortMergeJoinCost(int card1, int card2, double cost1,
+            double cost2, boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        return cost;
+    }
+
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /** @return true if a {@link SortMergeJoin} can evaluate op */
+    private static boolean isMergeable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if plan is known to produce its tuples in ascending order
+     *         of the given field
+     */
+    private static boolean isSortedOn(DbIterator plan, int field) {
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
         }
+        if (plan instanceof SortMergeJoin) {
+            // output follows the driving child, which is child1 for = > >=
+            SortMergeJoin smj = (SortMergeJoin) plan;
+            JoinPredicate jp = smj.getJoinPredicate();
+            Predicate.Op op = jp.getOperator();
+            return (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                    && isSortedOn(smj.getChildren()[0], field);
+        }
+        return false;
     }
 
     /**
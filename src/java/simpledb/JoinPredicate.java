@@ -43,11 +43,28 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        if (t1.getField(field1).getType() != t2.getField(field2).getType()) {
+        Type type = t1.getTupleDesc().getFieldType(field1);
+        if (type != t2.getTupleDesc().getFieldType(field2)) {
           return false;
         }
+        if (type == Type.INT_TYPE)
+          return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
+
+    /**
+     * Applies the predicate to a row of each of two batches, as
+     * {@link #filter(Tuple, Tuple)} does to two tuples.
+     */
+    public boolean filter(TupleBatch b1, int row1, TupleBatch b2, int row2) {
+        int[] v1 = b1.intColumn(field1);
+        int[] v2 = b2.intColumn(field2);
+        if (v1 != null && v2 != null)
+            return IntField.compare(v1[row1], op, v2[row2]);
+        if (b1.getTupleDesc().getFieldType(field1) != b2.getTupleDesc().getFieldType(field2))
+            return false;
+        return b1.getField(field1, row1).compare(op, b2.getField(field2, row2));
+    }
     
     public int getField1()
     {
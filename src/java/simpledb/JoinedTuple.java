@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * A JoinedTuple is the output of a join: a tuple of the left input followed
+ * by one of the right input.  It refers to the two input tuples instead of
+ * copying their fields.  Setting a field first copies the fields into the
+ * tuple, so the input tuples are never changed.
+ *
+ * @see RecyclingIterator
+ */
+class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private Tuple left;
+    private Tuple right;
+    // the number of fields of the left tuple
+    private final int split;
+    // the fields, once one has been set; until then they are read from the
+    // input tuples
+    private Field[] copy;
+
+    /** Creates a joined tuple of the given merged schema, not yet set. */
+    JoinedTuple(TupleDesc td, int split) {
+        super(td, null);
+        this.split = split;
+    }
+
+    JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        this(td, left.getTupleDesc().numFields());
+        set(left, right);
+    }
+
+    /** Points this tuple at another pair of input tuples. */
+    void set(Tuple left, Tuple right) {
+        this.left = left;
+        this.right = right;
+        copy = null;
+    }
+
+    public Field getField(int i) {
+        if (copy != null)
+            return copy[i];
+        return i < split ? left.getField(i) : right.getField(i - split);
+    }
+
+    public int getInt(int i) {
+        if (copy != null)
+            return ((IntField) copy[i]).getValue();
+        return i < split ? left.getInt(i) : right.getInt(i - split);
+    }
+
+    public void setInt(int i, int v) {
+        setField(i, new IntField(v));
+    }
+
+    public void setField(int i, Field f) {
+        if (copy == null) {
+            Field[] fields = new Field[getTupleDesc().numFields()];
+            for (int j = 0; j < fields.length; j++)
+                fields[j] = getField(j);
+            copy = fields;
+        }
+        copy[i] = f;
+    }
+
+    public void resetTupleDesc(TupleDesc td) {
+        super.resetTupleDesc(td);
+        left = right = null;
+        copy = new Field[td.numFields()];
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  Every page keeps the
+ * logical times of its last K references; the victim is the page whose K-th
+ * most recent reference lies furthest in the past.  Pages that have been
+ * referenced fewer than K times have an infinite backward K-distance and are
+ * evicted first, oldest last reference first, which is what keeps one-off
+ * scan pages from pushing out the hot set.
+ * <p>
+ * The reference history of recently evicted pages is retained for a bounded
+ * number of pages so that a page that comes back soon after eviction is not
+ * treated as brand new.
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+
+    /** Default K; LRU-2 captures most of the benefit in practice. */
+    public static final int DEFAULT_K = 2;
+
+    /** Default number of non-resident page histories kept around. */
+    public static final int DEFAULT_RETAINED = 1024;
+
+    private final int k;
+    private long clock;
+    private Map<PageId, long[]> history;
+    private LinkedHashMap<PageId, long[]> retained;
+    // prefetched pages whose first request has not come yet
+    private HashSet<PageId> unused;
+
+    public LRUKReplacementPolicy() {
+        this(DEFAULT_K, DEFAULT_RETAINED);
+    }
+
+    /**
+     * @param k the number of references remembered per page; must be >= 1
+     * @param retainedHistories how many evicted pages' histories to keep
+     */
+    public LRUKReplacementPolicy(int k, final int retainedHistories) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.clock = 0;
+        this.history = new HashMap<PageId, long[]>();
+        this.unused = new HashSet<PageId>();
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedHistories;
+            }
+        };
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        reference(admit(pid));
+    }
+
+    public synchronized void pagePrefetched(PageId pid) {
+        if (!history.containsKey(pid)) {
+            reference(admit(pid));
+            unused.add(pid);
+        }
+    }
+
+    private long[] admit(PageId pid) {
+        long[] refs = history.get(pid);
+        if (refs == null) {
+            refs = retained.remove(pid);
+            if (refs == null) {
+                // 0 means "no reference"; real references start at 1
+                refs = new long[k];
+            }
+            history.put(pid, refs);
+        }
+        return refs;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] refs = history.get(pid);
+        if (refs != null && !unused.remove(pid)) {
+            reference(refs);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        unused.remove(pid);
+        long[] refs = history.remove(pid);
+        if (refs != null) {
+            retained.put(pid, refs);
+        }
+    }
+
+    public synchronized PageId chooseVictim(EvictionFilter filter) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] refs = e.getValue();
+            long kth = refs[k - 1];
+            long last = refs[0];
+            // smaller K-th reference time == larger backward K-distance;
+            // break ties (notably among pages with fewer than K refs) by LRU
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!filter.canEvict(e.getKey())) {
+                    continue;
+                }
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+
+    /** Shift the history right and record a reference at the current time. */
+    private void reference(long[] refs) {
+        System.arraycopy(refs, 0, refs, 1, k - 1);
+        refs[0] = ++clock;
+    }
+}
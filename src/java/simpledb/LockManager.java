@@ -0,0 +1,311 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants page-level shared and exclusive locks to transactions
+ * for strict two-phase locking.  A transaction that asks for
+ * {@link Permissions#READ_ONLY} gets a shared lock, one that asks for
+ * {@link Permissions#READ_WRITE} gets an exclusive lock; a shared lock held
+ * alone is upgraded in place.
+ * <p>
+ * Every page has its own lock object, looked up in a
+ * {@link ConcurrentHashMap}, so an uncontended acquire only latches that one
+ * page.  When a request has to wait, the waiting transaction adds edges to a
+ * waits-for graph and searches it for a cycle.  If it finds one, the
+ * youngest transaction on the cycle (the one with the largest
+ * {@link TransactionId#getId}) is chosen as the victim and its
+ * acquire throws {@link TransactionAbortedException}.
+ */
+public class LockManager {
+
+    /** Lock state of a single page.  Guarded by its own monitor. */
+    private static class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId owner = null;
+        int waiters = 0;
+        boolean retired = false;
+
+        /** Grant the lock to tid if compatible; return true on success. */
+        boolean tryGrant(TransactionId tid, boolean exclusive) {
+            if (owner != null)
+                return owner.equals(tid);
+            if (!exclusive) {
+                sharers.add(tid);
+                return true;
+            }
+            if (sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid))) {
+                sharers.clear();
+                owner = tid;
+                return true;
+            }
+            return false;
+        }
+
+        /** @return the transactions tid would have to wait for */
+        Set<TransactionId> blockers(TransactionId tid) {
+            Set<TransactionId> s = new HashSet<TransactionId>();
+            if (owner != null) {
+                s.add(owner);
+            } else {
+                s.addAll(sharers);
+                s.remove(tid);
+            }
+            return s;
+        }
+
+        boolean release(TransactionId tid) {
+            if (owner != null && owner.equals(tid)) {
+                owner = null;
+                return true;
+            }
+            return sharers.remove(tid);
+        }
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty();
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held;
+
+    // waits-for graph, kept per waiting thread since a transaction may run
+    // on several threads at once (see Gather); only touched on the
+    // contended path
+    private final Object graph = new Object();
+    private final HashMap<Thread, Set<TransactionId>> waitsFor;
+    private final HashMap<Thread, TransactionId> waitingThreads;
+    private final HashSet<TransactionId> victims;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, PageLock>();
+        held = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        waitsFor = new HashMap<Thread, Set<TransactionId>>();
+        waitingThreads = new HashMap<Thread, TransactionId>();
+        victims = new HashSet<TransactionId>();
+    }
+
+    /**
+     * Acquire a lock on pid for tid, blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *   victim or was interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.retired)
+                    continue;
+                if (!lock.tryGrant(tid, exclusive)) {
+                    waitFor(tid, pid, lock, exclusive);
+                } else {
+                    // recorded under the page monitor, so that holdsLock and
+                    // releaseAll see every lock as soon as it is granted
+                    heldBy(tid).add(pid);
+                    if (lock.waiters > 0) {
+                        // a new sharer changes what the waiters are waiting for
+                        lock.notifyAll();
+                    }
+                }
+            }
+            break;
+        }
+    }
+
+    /**
+     * Blocks until lock, the lock of pid, can be granted to tid, and
+     * records the grant.  Called with the monitor of lock held.
+     */
+    private void waitFor(TransactionId tid, PageId pid, PageLock lock,
+            boolean exclusive)
+        throws TransactionAbortedException {
+        lock.waiters++;
+        try {
+            do {
+                synchronized (graph) {
+                    waitsFor.put(Thread.currentThread(), lock.blockers(tid));
+                    waitingThreads.put(Thread.currentThread(), tid);
+                    detectDeadlock(tid);
+                    if (victims.remove(tid)) {
+                        stopWaiting();
+                        Thread.interrupted();
+                        throw new TransactionAbortedException();
+                    }
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    synchronized (graph) {
+                        victims.remove(tid);
+                        stopWaiting();
+                    }
+                    throw new TransactionAbortedException();
+                }
+            } while (!lock.tryGrant(tid, exclusive));
+        } finally {
+            lock.waiters--;
+        }
+        heldBy(tid).add(pid);
+        synchronized (graph) {
+            stopWaiting();
+            if (victims.remove(tid)) {
+                // chosen as a victim just as the lock was granted; keep the
+                // lock so the abort releases it with the others
+                Thread.interrupted();
+                throw new TransactionAbortedException();
+            }
+        }
+    }
+
+    /** Remove the current thread from the waits-for graph.  Caller holds graph. */
+    private void stopWaiting() {
+        waitsFor.remove(Thread.currentThread());
+        waitingThreads.remove(Thread.currentThread());
+    }
+
+    /**
+     * @return the transactions any thread of tid is waiting for, or null if
+     *   none of its threads is waiting.  Caller holds graph.
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> s = null;
+        for (Map.Entry<Thread, TransactionId> e : waitingThreads.entrySet()) {
+            if (e.getValue().equals(tid)) {
+                if (s == null)
+                    s = new HashSet<TransactionId>();
+                s.addAll(waitsFor.get(e.getKey()));
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Look for a waits-for cycle through tid and, if there is one, mark its
+     * youngest member as a victim.  Caller holds graph.
+     */
+    private void detectDeadlock(TransactionId tid) {
+        LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+        if (!findCycle(tid, tid, path, new HashSet<TransactionId>()))
+            return;
+        TransactionId victim = tid;
+        for (TransactionId t : path) {
+            if (t.getId() > victim.getId())
+                victim = t;
+        }
+        victims.add(victim);
+        // wake the victim's other waiting threads; this one checks victims
+        for (Map.Entry<Thread, TransactionId> e : waitingThreads.entrySet()) {
+            if (e.getValue().equals(victim) && e.getKey() != Thread.currentThread())
+                e.getKey().interrupt();
+        }
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId cur,
+            LinkedList<TransactionId> path, Set<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor(cur);
+        if (next == null)
+            return false;
+        path.addLast(cur);
+        for (TransactionId t : next) {
+            if (t.equals(start))
+                return true;
+            if (visited.add(t) && findCycle(start, t, path, visited))
+                return true;
+        }
+        path.removeLast();
+        return false;
+    }
+
+    /**
+     * Release the lock tid holds on pid, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock != null) {
+            synchronized (lock) {
+                if (lock.release(tid)) {
+                    lock.notifyAll();
+                }
+                if (lock.isFree() && lock.waiters == 0) {
+                    lock.retired = true;
+                    locks.remove(pid, lock);
+                }
+            }
+        }
+        Set<PageId> pages = held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+    }
+
+    /**
+     * Release every lock held by tid.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages) {
+            release(tid, pid);
+        }
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        return pages != null && pages.contains(pid);
+    }
+
+    /** @return true if some transaction holds an exclusive lock on pid */
+    public boolean isExclusivelyLocked(PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.owner != null;
+        }
+    }
+
+    /** @return true if tid currently holds any lock */
+    public boolean holdsAnyLock(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        return pages != null && !pages.isEmpty();
+    }
+
+    /** @return the pages tid holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(pages);
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            PageLock fresh = new PageLock();
+            lock = locks.putIfAbsent(pid, fresh);
+            if (lock == null)
+                lock = fresh;
+        }
+        return lock;
+    }
+
+    private Set<PageId> heldBy(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = held.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        return pages;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -29,12 +30,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
+    private int parallelism = 1;
     private String query;
 //    private Query owner;
 
@@ -185,24 +188,35 @@ public class LogicalPlan {
         selectList.addElement(new LogicalSelectListNode(aggOp, fname));
     }
     
-    /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+    /** Add an aggregate over the field to the query.  A query may compute
+        several aggregates, all over the same GROUP BY fields.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null; see {@link #addGroupBy}
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
+    /** Add a field to the GROUP BY list of the query.  Grouping is by the
+        combined values of all the GROUP BY fields.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.addElement(field);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +230,102 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result to its first n tuples.  SimpleDb only supports a limit
+        together with an ORDER BY.
+        @param n the maximum number of tuples to return
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
+    /** @return the limit set with {@link #setLimit}, or -1 if there is none */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Scan tables larger than one morsel with a {@link ParallelSeqScan} of
+        the given number of threads, pushing the table's filters into it.
+        An equality join of such a scan with a table small enough to copy
+        to every thread runs in the threads too, as a {@link HashJoin}
+        inside a {@link Gather}, and so does an aggregate over the result.
+        When neither table is that small, both are split between the
+        threads by a {@link Repartition} on the join fields, and each
+        thread joins its own pair of partitions.
+        1, the default, scans every table with a {@link SeqScan}.
+        @param threads the number of threads per table scan
+    */
+    public void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        parallelism = threads;
+    }
+
+    /** @return the number of threads per table scan, see {@link #setParallelism} */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /** Whether the filtered table under alias is small enough for every
+        thread of a parallel plan to build a hash table on a copy of it.
+    */
+    private boolean fitsBroadcast(String alias, DbIterator plan,
+            Map<String,TableStats> statsMap, Map<String,Double> filterSelectivities) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+        if (s == null)
+            return false;
+        long bytes = (long) s.estimateTableCardinality(filterSelectivities.get(alias))
+            * plan.getTupleDesc().getSize();
+        return bytes * parallelism <= (long) HashJoin.DEFAULT_MEMORY_PAGES * BufferPool.PAGE_SIZE;
+    }
+
+    /** Joins a parallel plan with a small one inside the parallel plan's
+        threads: each thread probes a copy of the small plan with the tuples
+        of its own morsels.
+        @return the join, as a Gather, or null if probe does not run in parallel
+    */
+    private static DbIterator broadcastJoin(final JoinPredicate p, DbIterator probe,
+            DbIterator build) {
+        final Gather g;
+        if (probe instanceof ParallelSeqScan)
+            g = ((ParallelSeqScan) probe).asGather();
+        else if (probe instanceof Gather)
+            g = (Gather) probe;
+        else
+            return null;
+        final Pipeline inner = g.getPipeline();
+        final Broadcast b = new Broadcast(build);
+        SharedInput[] in = g.getInputs();
+        SharedInput[] inputs = java.util.Arrays.copyOf(in, in.length + 1);
+        inputs[in.length] = b;
+        return new Gather(new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator instantiate(int worker) {
+                return new HashJoin(p, inner.instantiate(worker), b.reader());
+            }
+        }, g.getWorkers(), inputs);
+    }
+
+    /** Joins a parallel plan with another plan that is too large to copy
+        to every thread: both are split on their join fields, and each
+        thread joins the two partitions of its own.
+        @return the join, as a Gather, or null if probe does not run in parallel
+    */
+    private DbIterator repartitionJoin(final JoinPredicate p, DbIterator probe,
+            DbIterator build) {
+        if (!(probe instanceof ParallelSeqScan || probe instanceof Gather))
+            return null;
+        final Repartition left = new Repartition(probe, p.getField1(), parallelism);
+        final Repartition right = new Repartition(build, p.getField2(), parallelism);
+        return new Gather(new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator instantiate(int worker) {
+                return new HashJoin(p, left.partition(worker), right.partition(worker));
+            }
+        }, parallelism, left, right);
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -292,9 +402,14 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDbFile(table.t);
+                 if (parallelism > 1 && f instanceof HeapFile
+                         && ((HeapFile) f).numPages() > ParallelSeqScan.MORSEL_PAGES)
+                     ss = new ParallelSeqScan(t, f.getId(), table.alias, parallelism);
+                 else
+                     ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,7 +449,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof ParallelSeqScan)
+                subplanMap.put(lf.tableAlias, ((ParallelSeqScan) subplan).withPredicate(p));
+            else if (subplan instanceof SeqScan)
+                subplanMap.put(lf.tableAlias, ((SeqScan) subplan).withPredicate(p));
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -348,6 +468,21 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // aliases whose subplan is a join rather than a single table
+        HashSet<String> joined = new HashSet<String>();
+        // the estimated cardinality and cost of each subplan, for choosing
+        // the algorithm of each join
+        HashMap<String,CostCard> estimates = new HashMap<String,CostCard>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s == null)
+                continue;
+            CostCard cc = new CostCard();
+            cc.card = s.estimateTableCardinality(filterSelectivities.get(table.alias));
+            cc.cost = s.estimateScanCost();
+            estimates.put(table.alias, cc);
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,9 +516,29 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
-            DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            DbIterator j = null;
+            boolean parallelJoin = parallelism > 1 && !isSubqueryJoin
+                && lj.p == Predicate.Op.EQUALS;
+            if (parallelJoin && !joined.contains(t2name)
+                    && fitsBroadcast(t2name, plan2, statsMap, filterSelectivities))
+                j = broadcastJoin(JoinOptimizer.joinPredicate(lj, plan1, plan2),
+                        plan1, plan2);
+            else if (parallelJoin)
+                j = repartitionJoin(JoinOptimizer.joinPredicate(lj, plan1, plan2),
+                        plan1, plan2);
+            CostCard e1 = estimates.get(t1name);
+            CostCard e2 = isSubqueryJoin ? null : estimates.get(t2name);
+            if (j == null && e1 != null && e2 != null)
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2,
+                        e1.card, e2.card, e1.cost, e2.cost);
+            if (j == null)
+                j = jo.instantiateJoin(lj,plan1,plan2);
+            if (e1 != null && e2 != null)
+                estimates.put(t1name, jo.estimateJoin(lj, e1, e2, statsMap));
+            else
+                estimates.remove(t1name);
             subplanMap.put(t1name, j);
+            joined.add(t1name);
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -414,28 +569,33 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was never added");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -462,10 +622,18 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    String afield = aggFields.elementAt(i);
+                    // COUNT(*) can count any field
+                    afields[i] = afield.equals("null.*") ? 0 : td.fieldNameToIndex(afield);
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                aggNode = new Aggregate(node, afields, aops, gfields);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,13 +642,28 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        if (limit >= 0 && !hasOrderBy)
+            throw new ParsingException("LIMIT without ORDER BY is not supported.");
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int field = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(limit, field, oByAsc, node);
+            else
+                node = new OrderBy(field, oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** @return the position of the aggregate among those added, or -1 */
+    private int aggregateIndex(String op, String fname) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equals(op) && aggFields.elementAt(i).equals(fname))
+                return i;
+        }
+        return -1;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * MorselScan is one worker's share of a {@link ParallelSeqScan}: it claims
+ * morsels of the scan one after another and returns their tuples, until the
+ * workers between them have claimed every morsel.  The scan must have been
+ * opened for morsels with {@link ParallelSeqScan#openShared}, as the
+ * {@link Gather} that lists it as an input does.
+ */
+public class MorselScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ParallelSeqScan scan;
+    private transient ParallelSeqScan.Morsels morsels;
+    private transient DbFileIterator morsel;
+    private boolean open;
+
+    public MorselScan(ParallelSeqScan scan) {
+        this.scan = scan;
+    }
+
+    /** @return the scan whose morsels this reads */
+    public ParallelSeqScan getScan() {
+        return scan;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        // keep to the run of the scan this copy was opened in
+        morsels = scan.morsels();
+        if (morsels == null)
+            throw new DbException("the scan has not been opened for morsels");
+        morsel = null;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            return false;
+        while (morsel == null || !morsel.hasNext()) {
+            if (morsel != null)
+                morsel.close();
+            morsel = morsels.next();
+            if (morsel == null) {
+                open = false;
+                return false;
+            }
+            morsel.open();
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return morsel.next();
+    }
+
+    /**
+     * Morsels are handed out once per run of the scan, so a MorselScan
+     * cannot be rewound on its own.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("a morsel scan cannot be rewound");
+    }
+
+    public void close() {
+        if (morsel != null)
+            morsel.close();
+        morsel = null;
+        open = false;
+    }
+}
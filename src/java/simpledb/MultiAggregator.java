@@ -0,0 +1,294 @@
+package simpledb;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Knows how to compute several aggregates at once over groups keyed by any
+ * number of fields.  COUNT may be taken over a field of any type; the other
+ * aggregates need INT fields.
+ * <p>
+ * As in {@link IntegerAggregator}, groups live in an open-addressing hash
+ * table and are numbered in the order they are first seen.  The group-by
+ * values of a group are kept side by side in one array, and its
+ * accumulators in another: one long per aggregate, two for AVG.  A tuple is
+ * hashed and compared field by field, so merging it allocates nothing.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] whats;
+    private final TupleDesc td;
+
+    // where the accumulators of each aggregate start within a group
+    private final int[] offsets;
+    private final int width;
+    private long[] acc;
+    private Field[] keys;
+    private int[] hashes;
+    private int groups;
+    // slot -> group number + 1, or 0 if the slot is empty
+    private int[] slots;
+    private int mask;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param childTd
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param whats
+     *            the aggregation operator to apply to each aggregate field
+     * @throws IllegalArgumentException
+     *             if an aggregate other than COUNT is over a non-INT field
+     */
+    public MultiAggregator(TupleDesc childTd, int[] gbfields, int[] afields,
+            Op[] whats) {
+        if (afields.length != whats.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            types[i] = childTd.getFieldType(gbfields[i]);
+        offsets = new int[afields.length];
+        int w = 0;
+        for (int i = 0; i < afields.length; i++) {
+            if (whats[i] != Op.COUNT
+                    && childTd.getFieldType(afields[i]) != Type.INT_TYPE)
+                throw new IllegalArgumentException(whats[i]
+                        + " needs an INT field");
+            types[gbfields.length + i] = Type.INT_TYPE;
+            offsets[i] = w;
+            w += whats[i] == Op.AVG ? 2 : 1;
+        }
+        this.width = w;
+        this.td = new TupleDesc(types);
+
+        this.acc = new long[INITIAL_CAPACITY * width];
+        this.keys = new Field[INITIAL_CAPACITY * gbfields.length];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.mask = slots.length - 1;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        merge(findGroup(tup, true), tup);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int g = findGroup(tup, false);
+        if (g < 0)
+            return false;
+        merge(g, tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return groups;
+    }
+
+    public void combine(Aggregator other) {
+        MultiAggregator o = (MultiAggregator) other;
+        int nk = gbfields.length;
+        for (int og = 0; og < o.groups; og++) {
+            int g = findGroup(o.keys, og * nk, o.hashes[og]);
+            int base = g * width, obase = og * width;
+            for (int i = 0; i < afields.length; i++) {
+                int a = base + offsets[i], oa = obase + offsets[i];
+                switch (whats[i]) {
+                case AVG:
+                    acc[a + 1] += o.acc[oa + 1];
+                    acc[a] += o.acc[oa];
+                    break;
+                case MIN:
+                    acc[a] = Math.min(acc[a], o.acc[oa]);
+                    break;
+                case MAX:
+                    acc[a] = Math.max(acc[a], o.acc[oa]);
+                    break;
+                default:
+                    acc[a] += o.acc[oa];
+                    break;
+                }
+            }
+        }
+    }
+
+    private void merge(int g, Tuple tup) {
+        int base = g * width;
+        for (int i = 0; i < afields.length; i++) {
+            int a = base + offsets[i];
+            if (whats[i] == Op.COUNT) {
+                acc[a]++;
+                continue;
+            }
+            long value = tup.getInt(afields[i]);
+            switch (whats[i]) {
+            case SUM:
+                acc[a] += value;
+                break;
+            case AVG:
+                acc[a] += value;
+                acc[a + 1]++;
+                break;
+            case MIN:
+                if (value < acc[a])
+                    acc[a] = value;
+                break;
+            case MAX:
+                if (value > acc[a])
+                    acc[a] = value;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor
+     */
+    public DbIterator iterator() {
+        int nk = gbfields.length;
+        List<Tuple> tupleList = new ArrayList<Tuple>(groups);
+        for (int g = 0; g < groups; g++) {
+            Tuple tuple = new Tuple(td);
+            for (int k = 0; k < nk; k++)
+                tuple.setField(k, keys[g * nk + k]);
+            for (int i = 0; i < afields.length; i++) {
+                int a = g * width + offsets[i];
+                long v = acc[a];
+                if (whats[i] == Op.AVG)
+                    v /= acc[a + 1];
+                tuple.setField(nk + i, new IntField((int) v));
+            }
+            tupleList.add(tuple);
+        }
+        return new TupleIterator(td, tupleList);
+    }
+
+    /** Hashes the group-by values of a tuple. */
+    private int hash(Tuple tup) {
+        int h = 0;
+        for (int k = 0; k < gbfields.length; k++)
+            h = 31 * h + tup.getField(gbfields[k]).hashCode();
+        return mix(h);
+    }
+
+    private boolean sameGroup(int g, Tuple tup) {
+        int nk = gbfields.length;
+        for (int k = 0; k < nk; k++) {
+            if (!keys[g * nk + k].equals(tup.getField(gbfields[k])))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of the tuple's group, or -1 if there is none and
+     *         create is false
+     */
+    private int findGroup(Tuple tup, boolean create) {
+        int hash = hash(tup);
+        int h = hash & mask;
+        while (true) {
+            int s = slots[h];
+            if (s == 0) {
+                if (!create)
+                    return -1;
+                int g = newGroup(h, hash);
+                for (int k = 0; k < gbfields.length; k++)
+                    keys[g * gbfields.length + k] = tup.getField(gbfields[k]);
+                return g;
+            }
+            if (hashes[s - 1] == hash && sameGroup(s - 1, tup))
+                return s - 1;
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the number of the group whose values are from[off ...],
+     *         adding it if needed
+     */
+    private int findGroup(Field[] from, int off, int hash) {
+        int nk = gbfields.length;
+        int h = hash & mask;
+        while (true) {
+            int s = slots[h];
+            if (s == 0) {
+                int g = newGroup(h, hash);
+                System.arraycopy(from, off, keys, g * nk, nk);
+                return g;
+            }
+            if (hashes[s - 1] == hash) {
+                int k = 0;
+                while (k < nk && keys[(s - 1) * nk + k].equals(from[off + k]))
+                    k++;
+                if (k == nk)
+                    return s - 1;
+            }
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds a group in the given empty slot; the caller fills in its
+     * group-by values.
+     */
+    private int newGroup(int slot, int hash) {
+        int nk = gbfields.length;
+        int g = groups++;
+        if (g == hashes.length) {
+            int n = hashes.length * 2;
+            acc = Arrays.copyOf(acc, n * width);
+            keys = Arrays.copyOf(keys, n * nk);
+            hashes = Arrays.copyOf(hashes, n);
+        }
+        hashes[g] = hash;
+        for (int i = 0; i < afields.length; i++) {
+            if (whats[i] == Op.MIN)
+                acc[g * width + offsets[i]] = Long.MAX_VALUE;
+            else if (whats[i] == Op.MAX)
+                acc[g * width + offsets[i]] = Long.MIN_VALUE;
+        }
+        slots[slot] = g + 1;
+        // keep the table at most half full
+        if (groups * 2 > slots.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int h = hashes[g] & mask;
+            while (slots[h] != 0)
+                h = (h + 1) & mask;
+            slots[h] = g + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
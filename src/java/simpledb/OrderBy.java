@@ -1,23 +1,43 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs that fit in the memory budget are sorted in memory.  Larger inputs
+ * are sorted externally: the child is cut into sorted runs of at most the
+ * budget, each run is written to a {@link SpillFile}, and the runs are
+ * merged with a heap, at most {@link #MERGE_FANIN} at a time.  The sort is
+ * stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages' worth of tuples. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Maximum number of runs merged at once. */
+    public static final int MERGE_FANIN = 64;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private transient ArrayList<Tuple> childTups;
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
+    private transient Iterator<Tuple> it;
     private boolean asc;
+    private final long budget;
+    private transient TupleComparator comparator;
+    // sorted runs on disk, or null if the input was sorted in memory
+    private transient ArrayList<SpillFile> runs;
+    private transient Merge merge;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator, with the
+     * default memory budget.
      * 
      * @param orderbyField
      *            the field to which the sort is applied.
@@ -27,11 +47,22 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages' worth of tuples to sort in memory before
+     *            writing a run to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child,
+            int memoryPages) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.budget = (long) memoryPages * BufferPool.PAGE_SIZE;
     }
     
     public boolean isASC()
@@ -56,21 +87,33 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        comparator = new TupleComparator(orderByField, asc);
+        try {
+            sort();
+        } catch (IOException e) {
+            release();
+            throw new DbException("order by could not spill: " + e.getMessage());
+        }
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        release();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        merge.close();
+        try {
+            merge = new Merge(runs);
+        } catch (IOException e) {
+            throw new DbException("order by could not read its runs: " + e.getMessage());
+        }
     }
 
     /**
@@ -82,6 +125,13 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null) {
+            try {
+                return merge.next();
+            } catch (IOException e) {
+                throw new DbException("order by could not read its runs: " + e.getMessage());
+            }
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -98,26 +148,130 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * Reads the child and sorts it, in memory if it fits and into merged
+     * runs otherwise.
+     */
+    private void sort() throws DbException, TransactionAbortedException,
+            IOException {
+        release();
+        childTups = new ArrayList<Tuple>();
+        int size = td.getSize();
+        long bytes = 0;
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            bytes += size;
+            if (bytes > budget) {
+                spillRun();
+                bytes = 0;
+            }
+        }
+        if (runs == null) {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+            return;
+        }
+        if (!childTups.isEmpty())
+            spillRun();
+        childTups = null;
+        while (runs.size() > MERGE_FANIN) {
+            // merge neighbouring runs so that equal keys keep their order
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += MERGE_FANIN) {
+                List<SpillFile> group = runs.subList(i,
+                        Math.min(i + MERGE_FANIN, runs.size()));
+                SpillFile out = new SpillFile(td);
+                merged.add(out);
+                Merge m = new Merge(group);
+                for (Tuple t = m.next(); t != null; t = m.next())
+                    out.add(t);
+                m.close();
+                for (SpillFile run : group)
+                    run.delete();
+            }
+            runs = merged;
+        }
+        merge = new Merge(runs);
+    }
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    /** Sorts the tuples in memory and writes them out as a run. */
+    private void spillRun() throws IOException {
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        childTups.clear();
+        if (runs == null)
+            runs = new ArrayList<SpillFile>();
+        runs.add(run);
+    }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+    /** Drops the sorted tuples and deletes any runs. */
+    private void release() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.delete();
+            runs = null;
+        }
+        childTups = null;
+        it = null;
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    /** The head of a run during a merge. */
+    private static class Head {
+        Tuple tuple;
+        final int run;
+
+        Head(Tuple tuple, int run) {
+            this.tuple = tuple;
+            this.run = run;
+        }
     }
-    
+
+    /** Merges sorted runs into one sorted stream with a heap of run heads. */
+    private class Merge {
+        private final SpillFile.Reader[] readers;
+        private final PriorityQueue<Head> heap;
+
+        Merge(List<SpillFile> runs) throws IOException {
+            readers = new SpillFile.Reader[runs.size()];
+            heap = new PriorityQueue<Head>(Math.max(1, runs.size()),
+                    new Comparator<Head>() {
+                        public int compare(Head a, Head b) {
+                            int c = comparator.compare(a.tuple, b.tuple);
+                            // earlier runs hold earlier tuples
+                            return c != 0 ? c : a.run - b.run;
+                        }
+                    });
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = runs.get(i).reader();
+                Tuple t = readers[i].next();
+                if (t != null)
+                    heap.add(new Head(t, i));
+            }
+        }
+
+        Tuple next() throws IOException {
+            Head h = heap.poll();
+            if (h == null)
+                return null;
+            Tuple t = h.tuple;
+            h.tuple = readers[h.run].next();
+            if (h.tuple != null)
+                heap.add(h);
+            return t;
+        }
+
+        void close() {
+            for (SpillFile.Reader r : readers) {
+                if (r != null)
+                    r.close();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan reads a table on several worker threads.  The pages of
+ * the table are divided into morsels of {@link #MORSEL_PAGES} consecutive
+ * pages, and each worker claims the next unread morsel until none are left.
+ * A worker applies the scan's predicates to the bytes of the pages of its
+ * morsel and hands the tuples that qualify back through the bounded queue of a {@link Gather},
+ * so a slow consumer holds the workers back rather than letting them fill
+ * memory.
+ * <p>
+ * Tuples come back in no particular order, and in a different order from
+ * run to run.  As a {@link SharedInput}, the scan can also feed the
+ * {@link MorselScan}s of a parallel pipeline of operators: each copy of the
+ * pipeline then claims morsels for itself.
+ * <p>
+ * All workers read as the scan's transaction, so the lock manager sees the
+ * same locks as for a {@link SeqScan}.
+ */
+public class ParallelSeqScan implements DbIterator, SharedInput {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate[] predicates;
+    private final int workers;
+
+    private transient volatile Morsels morsels;
+    private transient Gather gather;
+
+    /**
+     * Creates a parallel sequential scan over the specified table as a part
+     * of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param predicates
+     *            predicates every returned tuple satisfies; may be empty
+     * @param workers
+     *            the number of threads to scan with
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("need at least one worker");
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates.clone();
+        this.workers = workers;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int workers) {
+        this(tid, tableid, tableAlias, new Predicate[0], workers);
+    }
+
+    /** @return the table name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the predicates applied by the workers */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /** @return the number of threads the scan reads with */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Returns a scan like this one that also applies the given predicate,
+     * for pushing a {@link Filter} down into the workers.
+     */
+    public ParallelSeqScan withPredicate(Predicate p) {
+        Predicate[] ps = Arrays.copyOf(predicates, predicates.length + 1);
+        ps[predicates.length] = p;
+        return new ParallelSeqScan(tid, tableid, tableAlias, ps, workers);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        gather = asGather();
+        gather.open();
+    }
+
+    /**
+     * Returns a Gather whose workers each read a {@link MorselScan} of this
+     * scan, which is what {@link #open} runs.  An operator that works on
+     * the workers' tuples itself can use it with {@link Gather#collect}.
+     */
+    public Gather asGather() {
+        return new Gather(new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator instantiate(int worker) {
+                return new MorselScan(ParallelSeqScan.this);
+            }
+        }, workers, this);
+    }
+
+    /**
+     * Starts a new run of the scan, in which every morsel is unclaimed.
+     * Called by the Gather that reads the scan.
+     */
+    public void openShared() {
+        morsels = new Morsels((HeapFile) Database.getCatalog().getDbFile(tableid));
+    }
+
+    public void closeShared() {
+    }
+
+    /**
+     * Claims the next unread morsel of the current run of the scan.  Safe
+     * to call from any thread once the scan has been opened with
+     * {@link #openShared}.
+     *
+     * @return an iterator over the tuples of the morsel that satisfy the
+     *         scan's predicates, or null if every morsel has been claimed
+     */
+    public DbFileIterator nextMorsel() {
+        return morsels.next();
+    }
+
+    /** @return the morsels of the current run */
+    Morsels morsels() {
+        return morsels;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return gather != null && gather.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (gather == null)
+            throw new NoSuchElementException();
+        return gather.next();
+    }
+
+    public void close() {
+        if (gather != null)
+            gather.close();
+        gather = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * The morsels of one run of the scan.  A {@link MorselScan} keeps the
+     * run it was opened in, so a worker of a run that has been rewound
+     * cannot claim morsels of the next one.
+     */
+    class Morsels {
+        private final HeapFile file;
+        private final int numPages;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Morsels(HeapFile file) {
+            this.file = file;
+            this.numPages = file.numPages();
+        }
+
+        /** @see ParallelSeqScan#nextMorsel */
+        DbFileIterator next() {
+            long first = (long) next.getAndIncrement() * MORSEL_PAGES;
+            if (first >= numPages)
+                return null;
+            return file.iterator(tid, (int) first,
+                    (int) Math.min(numPages, first + MORSEL_PAGES), predicates);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,13 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    // threads per table scan in queries; see LogicalPlan#setParallelism
+    static int parallelism = 1;
+
+    // Zql has no LIMIT clause, so a trailing "LIMIT n" is cut off a statement
+    // before Zql parses it and is added to the plan afterwards
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)(.*\\S)\\s+limit\\s+(\\d{1,9})\\s*;?\\s*");
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -138,6 +147,7 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(parallelism);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +192,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -207,8 +214,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +224,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAggregate = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,13 +245,10 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -276,9 +277,21 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * @param limit
+     *            the number of result tuples to return, or -1 for all of them
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +478,20 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        int limit = -1;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (m.matches()) {
+            s = m.group(1) + ";";
+            limit = Integer.parseInt(m.group(2));
+        }
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +524,15 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String sql = readStatement(is);
+            int limit = -1;
+            Matcher m = LIMIT_CLAUSE.matcher(sql);
+            if (m.matches()) {
+                sql = m.group(1) + ";";
+                limit = Integer.parseInt(m.group(2));
+            }
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -525,7 +554,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -578,10 +607,21 @@ public class Parser {
         }
     }
 
+    /** Reads the text of a statement, which is all of is. */
+    private static String readStatement(InputStream is) throws IOException {
+        InputStreamReader r = new InputStreamReader(is, "UTF-8");
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[4096];
+        int n;
+        while ((n = r.read(buf)) != -1)
+            sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -595,7 +635,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel threads] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -615,6 +655,14 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected thread count after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    parallelism = Math.max(1, Integer.parseInt(argv[i]));
+                    System.out.println("Scanning with " + parallelism + " threads.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
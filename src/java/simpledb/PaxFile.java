@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A PaxFile is a {@link HeapFile} whose pages are {@link PaxPage}s, which
+ * store each column of their tuples together.  Everything but the layout
+ * of a page is the same as in a HeapFile.  A scan that asks for some
+ * columns only, through {@link HeapFile#iterator(TransactionId, Predicate[],
+ * int[])}, reads and decodes just those columns of each page.
+ */
+public class PaxFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IOException {
+        return new PaxPage((HeapPageId) pid, readPageData(pid));
+    }
+}
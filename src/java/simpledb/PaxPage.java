@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A PaxPage holds as many tuples as a {@link HeapPage} of the same schema,
+ * but stores them column by column (the PAX layout): after the header
+ * bitmap of used slots comes a run of the values of the first field of
+ * every slot, then a run of the second field, and so on.  A value takes
+ * the same bytes it would in a HeapPage row, so the value of field col in
+ * a slot is at
+ * <p>
+ *      header size + slots * (offset of col) + slot * (length of col)
+ * <p>
+ * A scan that reads a few columns of a wide table touches only their runs,
+ * and an all-zero page is an empty PaxPage.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements TuplePage {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final byte[] header;
+    // the bytes the page was read from, which the slots not inserted since
+    // are read from
+    private final byte[] data;
+    private final ByteBuffer raw;
+    // the tuple inserted into each slot since the page was read, if any
+    private final Tuple[] inserted;
+
+    private byte[] oldData;
+    private TransactionId lastTid;
+    private boolean dirty;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see PaxPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length < BufferPool.PAGE_SIZE)
+            throw new IOException("short page " + id + ": " + data.length + " bytes");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumSlots(td, BufferPool.PAGE_SIZE);
+        // nothing writes the copy, so it is the before image as well
+        this.data = data.clone();
+        this.oldData = this.data;
+        this.raw = ByteBuffer.wrap(this.data);
+        this.header = new byte[getHeaderSize(numSlots)];
+        raw.get(header);
+        this.inserted = new Tuple[numSlots];
+    }
+
+    /** @return the number of slots on a page of the given schema */
+    static int getNumSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static int getHeaderSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /** @return where the value of field col in the given slot starts */
+    private static int valueOffset(TupleDesc td, int numSlots, int slot, int col) {
+        return getHeaderSize(numSlots) + numSlots * td.getOffset(col)
+            + slot * td.getFieldType(col).getLen();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public Tuple getTuple(int slot) {
+        if (inserted[slot] != null || !isSlotUsed(slot))
+            return inserted[slot];
+        Tuple t = Tuple.compact(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                t.setInt(j, raw.getInt(valueOffset(td, numSlots, slot, j)));
+            else
+                t.setField(j, readString(slot, j));
+        }
+        return t;
+    }
+
+    public int getInt(int slot, int col) {
+        if (inserted[slot] != null)
+            return inserted[slot].getInt(col);
+        return raw.getInt(valueOffset(td, numSlots, slot, col));
+    }
+
+    public Field getField(int slot, int col) {
+        if (inserted[slot] != null)
+            return inserted[slot].getField(col);
+        if (td.getFieldType(col) == Type.INT_TYPE)
+            return new IntField(getInt(slot, col));
+        return readString(slot, col);
+    }
+
+    private StringField readString(int slot, int col) {
+        int off = valueOffset(td, numSlots, slot, col);
+        int len = Math.min(Math.max(raw.getInt(off), 0), Type.STRING_LEN);
+        return new StringField(new String(data, off + 4, len), Type.STRING_LEN);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, from
+     * which the PaxPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        System.arraycopy(header, 0, page, 0, header.length);
+        ByteBuffer out = ByteBuffer.wrap(page);
+        for (int j=0; j<td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            int start = valueOffset(td, numSlots, 0, j);
+            // the values read from disk are still in place
+            System.arraycopy(data, start, page, start, numSlots * len);
+            for (int i=0; i<numSlots; i++) {
+                int off = start + i * len;
+                if (!isSlotUsed(i))
+                    Arrays.fill(page, off, off + len, (byte) 0);
+                else if (inserted[i] != null)
+                    writeValue(out, off, inserted[i], j);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Generates the bytes of a page holding the given tuples in its first
+     * slots.
+     *
+     * @param tuples at most {@link #getNumSlots} tuples of schema td
+     * @param pageSize the number of bytes in a page
+     */
+    static byte[] createPageData(TupleDesc td, List<Tuple> tuples, int pageSize) {
+        int slots = getNumSlots(td, pageSize);
+        if (tuples.size() > slots)
+            throw new IllegalArgumentException(tuples.size() + " tuples do not fit on a page");
+        byte[] data = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        for (int i=0; i<tuples.size(); i++) {
+            data[i/8] |= (byte) (1 << i % 8);
+            for (int j=0; j<td.numFields(); j++)
+                writeValue(out, valueOffset(td, slots, i, j), tuples.get(i), j);
+        }
+        return data;
+    }
+
+    /** Writes field col of t at off, as Field.serialize would. */
+    private static void writeValue(ByteBuffer out, int off, Tuple t, int col) {
+        if (t.getTupleDesc().getFieldType(col) == Type.INT_TYPE) {
+            out.putInt(off, t.getInt(col));
+            return;
+        }
+        String s = t.getString(col);
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        out.putInt(off, s.length());
+        int i = 0;
+        for (; i < s.length(); i++)
+            out.put(off + 4 + i, (byte) s.charAt(i));
+        for (; i < Type.STRING_LEN; i++)
+            out.put(off + 4 + i, (byte) 0);
+    }
+
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null || !t.getRecordId().getPageId().equals(pid))
+            throw new DbException("tuple is not on this page");
+        int slot = t.getRecordId().tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot is already empty");
+        markSlotUsed(slot, false);
+        inserted[slot] = null;
+        t.setRecordId(null);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is not correct");
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                inserted[i] = t;
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("Page is full");
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastTid = tid;
+        this.dirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastTid : null;
+    }
+
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int i=0; i<numSlots; i++) {
+            if (isSlotUsed(i))
+                used++;
+        }
+        return numSlots - used;
+    }
+
+    public boolean isSlotUsed(int i) {
+        return ((header[i/8] >> (i%8)) & 0x1) == 0x1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i/8] |= (byte) (1 << i % 8);
+        else
+            header[i/8] &= (byte) ~(1 << i % 8);
+    }
+
+    /** @return an iterator over all tuples on this page */
+    public Iterator<Tuple> iterator() {
+        return iterator(new Predicate[0], null);
+    }
+
+    public Iterator<Tuple> iterator(final Predicate[] predicates, final int[] columns) {
+        final TupleDesc projected = columns == null ? null : td.project(columns);
+        return new Iterator<Tuple>() {
+
+            // the slot of next, or the last slot looked at
+            private int slot = -1;
+            private Tuple next;
+
+            public boolean hasNext() {
+                while (next == null && slot + 1 < numSlots) {
+                    slot++;
+                    if (isSlotUsed(slot) && HeapPage.matches(PaxPage.this, slot, predicates))
+                        next = columns == null ? getTuple(slot)
+                            : HeapPage.project(PaxPage.this, slot, columns, projected);
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
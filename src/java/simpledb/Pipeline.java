@@ -0,0 +1,21 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * Builds the copy of a pipeline of operators that one worker of a
+ * {@link Gather} runs.  Every copy must produce tuples of the same
+ * TupleDesc.  A copy typically reads a {@link MorselScan} of a
+ * {@link ParallelSeqScan}, so that the copies split the table between
+ * them, and may read any other {@link SharedInput} of the Gather, such as a
+ * {@link Broadcast}.
+ */
+public interface Pipeline extends Serializable {
+
+    /**
+     * @param worker the number of the worker, from 0 to one less than the
+     *            number of workers
+     * @return a new, unopened copy of the pipeline for the worker
+     */
+    public DbIterator instantiate(int worker);
+}
@@ -114,11 +114,99 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        Field targetField = t.getField(field);
-        if (!targetField.getType().equals(operand.getType())) {
+        if (t.getTupleDesc().getFieldType(field) != operand.getType()) {
           return false;
         }
-        return targetField.compare(op, operand);
+        if (operand.getType() == Type.INT_TYPE)
+          return IntField.compare(t.getInt(field), op, ((IntField) operand).getValue());
+        return t.getField(field).compare(op, operand);
+    }
+
+    /**
+     * Applies the predicate to the tuple in a used slot of a page, as
+     * {@link #filter(Tuple)} does, without materializing the tuple: an INT
+     * field is compared straight from the page's bytes.
+     */
+    public boolean filter(TuplePage page, int slot) {
+        if (page.getTupleDesc().getFieldType(field) != operand.getType())
+            return false;
+        if (operand.getType() == Type.INT_TYPE)
+            return IntField.compare(page.getInt(slot, field), op,
+                    ((IntField) operand).getValue());
+        return page.getField(slot, field).compare(op, operand);
+    }
+
+    /**
+     * Applies the predicate to the selected rows of a batch, as
+     * {@link #filter} does to a tuple.  An INT field is compared straight
+     * from the batch's int vector.
+     *
+     * @param out receives the physical indexes of the rows that pass; it
+     *            must have room for every selected row of b
+     * @return the number of rows that pass
+     */
+    public int select(TupleBatch b, int[] out) {
+        if (b.getTupleDesc().getFieldType(field) != operand.getType())
+            return 0;
+        int n = b.size();
+        int k = 0;
+        int[] v = b.intColumn(field);
+        if (v == null) {
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (b.getField(field, r).compare(op, operand))
+                    out[k++] = r;
+            }
+            return k;
+        }
+        int x = ((IntField) operand).getValue();
+        // a loop per operator, rather than a choice of operator per row
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] == x)
+                    out[k++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] != x)
+                    out[k++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] > x)
+                    out[k++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] >= x)
+                    out[k++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] < x)
+                    out[k++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = b.row(i);
+                if (v[r] <= x)
+                    out[k++] = r;
+            }
+            break;
+        }
+        return k;
     }
 
     /**
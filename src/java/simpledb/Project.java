@@ -3,14 +3,24 @@ package simpledb;
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection.  Read a
+ * batch at a time, it passes on a view of the projected columns of each of
+ * its child's batches, copying nothing.  Over a {@link SeqScan}, it has the
+ * scan decode only the projected columns.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    // the iterator read from; the scan given the projection when child is a
+    // SeqScan, which then returns the output tuples itself
+    private transient DbIterator input;
+    private transient boolean pushed;
+    private transient TupleBatch buffer;
+    private transient TupleBatch view;
+    private transient int[] cols;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -47,17 +57,30 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
+        // each output tuple copies the fields it needs out of the child's
+        if (child instanceof RecyclingIterator)
+            ((RecyclingIterator) child).setRecycleOutput(true);
+        pushed = child instanceof SeqScan;
+        if (pushed) {
+            int[] cols = new int[outFieldIds.size()];
+            for (int i = 0; i < cols.length; i++)
+                cols[i] = outFieldIds.get(i);
+            input = ((SeqScan) child).withColumns(cols);
+        } else {
+            input = child;
+        }
+        input.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        child.close();
+        if (input != null)
+            input.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child.rewind();
+        input.rewind();
     }
 
     /**
@@ -68,18 +91,41 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
+        while (input.hasNext()) {
+            Tuple t = input.next();
+            if (pushed)
+                return t;
+            Tuple newTuple = Tuple.compact(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    newTuple.setInt(i, t.getInt(outFieldIds.get(i)));
+                else
+                    newTuple.setField(i, t.getField(outFieldIds.get(i)));
             }
             return newTuple;
         }
         return null;
     }
 
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (pushed)
+            return ((SeqScan) input).nextBatch();
+        if (view == null) {
+            buffer = new TupleBatch(child.getTupleDesc());
+            view = TupleBatch.view(td);
+            cols = new int[outFieldIds.size()];
+            for (int i = 0; i < cols.length; i++)
+                cols[i] = outFieldIds.get(i);
+        }
+        TupleBatch b = TupleBatch.next(input, buffer);
+        if (b == null)
+            return null;
+        view.project(b, cols);
+        return view;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +136,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    view = null;
 	}
     }
     
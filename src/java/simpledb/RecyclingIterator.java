@@ -0,0 +1,17 @@
+package simpledb;
+
+/**
+ * A RecyclingIterator can return the same Tuple object for every row,
+ * changing its contents each time, instead of allocating a new tuple per
+ * row.  Recycling is off by default.  A consumer that is done with each
+ * tuple before it calls hasNext or next again, and keeps no reference to
+ * it, may turn it on for its child.
+ */
+public interface RecyclingIterator extends DbIterator {
+
+    /**
+     * Turns recycling of output tuples on or off.  It should be called
+     * before the iterator is opened.
+     */
+    void setRecycleOutput(boolean recycle);
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Repartition splits an input between the workers of a {@link Gather} by
+ * the hash of a field, so that all the tuples with the same value of the
+ * field go to the same worker.  This lets each worker join or group its
+ * share of the input on that field by itself.  The input is read when the
+ * Gather opens and written to one {@link SpillFile} per partition; each
+ * worker reads its own partition through {@link #partition}.
+ * <p>
+ * The split itself is not parallel: {@link #openShared} drains the whole
+ * input on the thread that opens the Gather before any worker starts.  A
+ * child that is itself a parallel scan still reads its pages on its own
+ * workers, but every tuple passes through that one thread.
+ */
+public class Repartition implements SharedInput {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int field;
+    private final int partitions;
+    private transient volatile SpillFile[] files;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the input to split
+     * @param field
+     *            the index of the field to split on
+     * @param partitions
+     *            the number of partitions, usually the number of workers
+     */
+    public Repartition(DbIterator child, int field, int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("need at least one partition");
+        this.child = child;
+        this.field = field;
+        this.partitions = partitions;
+    }
+
+    /** @return the input this splits */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    /** @return the index of the field the input is split on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the number of partitions */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void openShared() throws DbException, TransactionAbortedException {
+        SpillFile[] fs = new SpillFile[partitions];
+        try {
+            for (int i = 0; i < partitions; i++)
+                fs[i] = new SpillFile(child.getTupleDesc());
+            child.open();
+            try {
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    fs[SpillFile.partitionOf(t.getField(field), 0, partitions)].add(t);
+                }
+            } finally {
+                child.close();
+            }
+        } catch (IOException e) {
+            delete(fs);
+            throw new DbException("could not repartition: " + e.getMessage());
+        } catch (DbException e) {
+            delete(fs);
+            throw e;
+        } catch (TransactionAbortedException e) {
+            delete(fs);
+            throw e;
+        }
+        files = fs;
+    }
+
+    public void closeShared() {
+        SpillFile[] fs = files;
+        files = null;
+        if (fs != null)
+            delete(fs);
+    }
+
+    private static void delete(SpillFile[] fs) {
+        for (SpillFile f : fs) {
+            if (f != null)
+                f.delete();
+        }
+    }
+
+    /**
+     * Returns an iterator over one partition of the input, for the worker
+     * of the same number.  The iterator reads the partition of whichever
+     * run of the Gather is current when it is opened.
+     */
+    public DbIterator partition(int i) {
+        if (i < 0 || i >= partitions)
+            throw new IllegalArgumentException("no partition " + i);
+        return new Reader(i);
+    }
+
+    private class Reader implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int partition;
+        private transient SpillFile.Reader in;
+        private transient Tuple next;
+
+        Reader(int partition) {
+            this.partition = partition;
+        }
+
+        public void open() throws DbException {
+            SpillFile[] fs = files;
+            if (fs == null)
+                throw new DbException("repartitioned input has not been read");
+            try {
+                in = fs[partition].reader();
+            } catch (IOException e) {
+                throw new DbException("could not read partition: " + e.getMessage());
+            }
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (next == null && in != null) {
+                try {
+                    next = in.next();
+                } catch (IOException e) {
+                    throw new DbException("could not read partition: " + e.getMessage());
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            if (in != null)
+                in.close();
+            in = null;
+            next = null;
+        }
+    }
+}
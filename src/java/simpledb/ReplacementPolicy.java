@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the {@link BufferPool}
+ * should give up when it needs a free frame.
+ * <p>
+ * The BufferPool reports every page that enters the pool, every hit on a
+ * resident page and every page that leaves the pool; the policy uses these
+ * notifications to keep whatever bookkeeping it needs.  The BufferPool, not
+ * the policy, decides whether a given page may actually be evicted, which it
+ * expresses through an {@link EvictionFilter}.
+ * <p>
+ * Implementations must be safe to call from multiple threads.
+ *
+ * @see ClockReplacementPolicy
+ * @see LRUKReplacementPolicy
+ * @see TwoQReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Predicate used by the BufferPool to restrict the pages a policy may
+     * choose as a victim (e.g. to skip dirty pages).
+     */
+    public interface EvictionFilter {
+        /** @return true if the page may be evicted right now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called after a page has been read into the pool.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called after a page has been read into the pool ahead of any request
+     * for it.  The read counts as the page's reference, and the first
+     * {@link #pageAccessed} that follows is the request the read anticipated,
+     * so it must not make the page look any hotter.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void pagePrefetched(PageId pid);
+
+    /**
+     * Called whenever a resident page is requested from the pool.
+     *
+     * @param pid the id of the page that was hit
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called after a page has left the pool, either because it was evicted
+     * or because it was discarded.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page that should be evicted next.  Does not remove it; the
+     * BufferPool calls {@link #pageRemoved} once the page is actually gone.
+     *
+     * @param filter only pages for which filter.canEvict returns true may be
+     *   returned
+     * @return the id of the victim page, or null if no resident page is
+     *   acceptable to filter
+     */
+    public PageId chooseVictim(EvictionFilter filter);
+}
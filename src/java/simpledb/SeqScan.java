@@ -5,16 +5,26 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk).  The tuples can also be read a {@link TupleBatch} at a time.
+ * <p>
+ * A scan may be given predicates, which it evaluates on the bytes of each
+ * page so that only the tuples that qualify are materialized.  A scan may
+ * also be limited to some columns, which are then the only ones it decodes
+ * and returns.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private Predicate[] predicates;
+    // the columns returned, or null for all of them, and their schema
+    private int[] columns;
+    private TupleDesc projected;
     private DbFileIterator itr;
+    private transient TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -33,11 +43,34 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, new Predicate[0]);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying
+     * every given predicate.
+     *
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates) {
+        this(tid, tableid, tableAlias, predicates, null);
+    }
+
+    private SeqScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, int[] columns) {
         this.tid=tid;
         this.tableid=tableid;
         this.tableAlias=tableAlias;
+        this.predicates = predicates.clone();
         HeapFile heapFile = (HeapFile) Database.getCatalog().getDbFile(tableid);
-        itr = heapFile.iterator(tid);
+        if (columns == null) {
+            itr = heapFile.iterator(tid, this.predicates);
+        } else {
+            this.columns = columns.clone();
+            this.projected = heapFile.getTupleDesc().project(columns);
+            itr = heapFile.iterator(tid, this.predicates, columns);
+        }
     }
 
     /**
@@ -49,6 +82,41 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the predicates every returned tuple satisfies */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /**
+     * Returns a scan like this one that also applies the given predicate,
+     * for pushing a {@link Filter} down onto the pages.
+     */
+    public SeqScan withPredicate(Predicate p) {
+        Predicate[] ps = Arrays.copyOf(predicates, predicates.length + 1);
+        ps[predicates.length] = p;
+        return new SeqScan(tid, tableid, tableAlias, ps, columns);
+    }
+
+    /**
+     * Returns a scan like this one that returns only the given columns of
+     * each tuple, in the given order, for pushing a {@link Project} down
+     * onto the pages.  The scan's predicates still refer to the columns of
+     * the table.
+     */
+    public SeqScan withColumns(int[] columns) {
+        return new SeqScan(tid, tableid, tableAlias, predicates, columns);
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -73,9 +141,13 @@ public class SeqScan implements DbIterator {
         this.close();
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        // the predicates and columns refer to the fields of the old table
+        this.predicates = new Predicate[0];
+        this.columns = null;
+        this.projected = null;
         HeapFile heapFile = (HeapFile) Database.getCatalog().getDbFile(tableid);
         itr = heapFile.iterator(tid);
-
+        batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -96,6 +168,8 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+        if (projected != null)
+            return projected;
         return Database.getCatalog().getTupleDesc(tableid);
     }
 
@@ -108,10 +182,30 @@ public class SeqScan implements DbIterator {
         return itr.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && itr.hasNext())
+            batch.add(itr.next());
+        return batch.rows() == 0 ? null : batch;
+    }
+
     public void close() {
         itr.close();
     }
 
+    /**
+     * @return the ring the scan last read through, for its count of pages
+     *   that came from the ring versus the shared pool; null if the scan
+     *   read through the shared pool
+     */
+    public BufferRing getRing() {
+        if (itr instanceof HeapFile.HeapFileIterator)
+            return ((HeapFile.HeapFileIterator) itr).getRing();
+        return null;
+    }
+
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         itr.rewind();
@@ -0,0 +1,21 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * An input shared by the worker copies of a {@link Pipeline}, such as the
+ * morsels of a {@link ParallelSeqScan} or the tuples of a {@link Broadcast}.
+ * The {@link Gather} running the pipeline opens its shared inputs before any
+ * worker starts and closes them once every worker has stopped.
+ */
+public interface SharedInput extends Serializable {
+
+    /**
+     * Prepares the input for the workers, reading whatever has to be read
+     * up front.  Called on the thread that opens the Gather.
+     */
+    public void openShared() throws DbException, TransactionAbortedException;
+
+    /** Releases what openShared set up. */
+    public void closeShared();
+}
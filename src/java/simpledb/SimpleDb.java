@@ -17,6 +17,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            boolean slotted=false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -35,7 +36,10 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
-                            else {
+                        else if (s.toLowerCase().equals("varchar")) {
+                                ts[index++]=Type.STRING_TYPE;
+                                slotted=true;
+                            } else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
@@ -45,7 +49,7 @@ public class SimpleDb {
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator,slotted);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
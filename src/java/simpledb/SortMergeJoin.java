@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that both arrive in ascending order of
+ * their join fields, reading each of them once.  Wrap a child in an
+ * ascending {@link OrderBy} on its join field if it is not already sorted.
+ * <p>
+ * One child drives the join and the tuples of the other that can match
+ * are kept in a buffer.  For an equality predicate the buffer holds the run
+ * of tuples with the current key, so duplicate keys on both sides are joined
+ * without rereading anything.  For a range predicate the tuples of the other
+ * side that match a driving tuple are a prefix of that side, and the prefix
+ * only grows as the driving key does; the buffer holds that prefix.  A range
+ * join therefore keeps one input in memory, as its output is a large part of
+ * the cross product anyway.
+ * <p>
+ * As with {@link Join}, output tuples are the fields of the child1 tuple
+ * followed by those of the child2 tuple.
+ */
+public class SortMergeJoin extends Operator implements RecyclingIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+
+    private transient TupleDesc td;
+    // whether to return the same output tuple for every row
+    private boolean recycle;
+    private transient JoinedTuple recycled;
+    // fields of different types never compare equal, see JoinPredicate#filter
+    private boolean comparable;
+    // child2 drives the join when the predicate is < or <=, child1 otherwise
+    private boolean driveRight;
+    // whether a buffered key equal to the driving key matches
+    private boolean inclusive;
+    private transient ArrayList<Tuple> buffer;
+    // the next tuple of the buffered side that has not matched anything yet
+    private transient Tuple lookahead;
+    private transient Tuple driver;
+    private int match;
+
+    /**
+     * Constructor.  Accepts two sorted children to join and the predicate to
+     * join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; one of EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation, in ascending order of the
+     *            predicate's first field
+     * @param child2
+     *            Iterator for the right relation, in ascending order of the
+     *            predicate's second field
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        switch (p.getOperator()) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            driveRight = false;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            driveRight = true;
+            break;
+        default:
+            throw new IllegalArgumentException("SortMergeJoin cannot evaluate "
+                    + p.getOperator());
+        }
+        inclusive = p.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ
+                || p.getOperator() == Predicate.Op.LESS_THAN_OR_EQ;
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table
+     *         name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        comparable = child1.getTupleDesc().getFieldType(p.getField1())
+                == child2.getTupleDesc().getFieldType(p.getField2());
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        buffer = null;
+        lookahead = null;
+        driver = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        buffer = new ArrayList<Tuple>();
+        lookahead = null;
+        driver = null;
+        match = 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!comparable)
+            return null;
+        DbIterator driving = driveRight ? child2 : child1;
+        while (true) {
+            if (driver != null && match < buffer.size()) {
+                Tuple other = buffer.get(match++);
+                return driveRight ? merge(other, driver) : merge(driver, other);
+            }
+            if (!driving.hasNext())
+                return null;
+            driver = driving.next();
+            match = 0;
+            if (p.getOperator() == Predicate.Op.EQUALS)
+                seekRun();
+            else
+                extendPrefix();
+        }
+    }
+
+    /** Buffers the run of child2 tuples whose key equals the driving key. */
+    private void seekRun() throws DbException, TransactionAbortedException {
+        Field key = driver.getField(p.getField1());
+        if (!buffer.isEmpty()) {
+            int c = compare(buffer.get(0).getField(p.getField2()), key);
+            if (c == 0)
+                return;
+            buffer.clear();
+        }
+        while (true) {
+            if (lookahead == null) {
+                if (!child2.hasNext())
+                    return;
+                lookahead = child2.next();
+            }
+            int c = compare(lookahead.getField(p.getField2()), key);
+            if (c > 0)
+                return;
+            if (c == 0)
+                buffer.add(lookahead);
+            lookahead = null;
+        }
+    }
+
+    /** Buffers the tuples of the other side that are below the driving key. */
+    private void extendPrefix() throws DbException, TransactionAbortedException {
+        DbIterator other = driveRight ? child1 : child2;
+        int driverField = driveRight ? p.getField2() : p.getField1();
+        int otherField = driveRight ? p.getField1() : p.getField2();
+        Field key = driver.getField(driverField);
+        while (true) {
+            if (lookahead == null) {
+                if (!other.hasNext())
+                    return;
+                lookahead = other.next();
+            }
+            int c = compare(lookahead.getField(otherField), key);
+            if (c > 0 || (c == 0 && !inclusive))
+                return;
+            buffer.add(lookahead);
+            lookahead = null;
+        }
+    }
+
+    private static int compare(Field f, Field key) {
+        if (f.compare(Predicate.Op.EQUALS, key))
+            return 0;
+        return f.compare(Predicate.Op.LESS_THAN, key) ? -1 : 1;
+    }
+
+    public void setRecycleOutput(boolean recycle) {
+        this.recycle = recycle;
+        recycled = null;
+    }
+
+    /**
+     * @return the output tuple for a left and a right tuple, which refers
+     *         to the two instead of copying their fields
+     */
+    private Tuple merge(Tuple left, Tuple right) {
+        if (!recycle)
+            return new JoinedTuple(td, left, right);
+        if (recycled == null)
+            recycled = new JoinedTuple(td, left.getTupleDesc().numFields());
+        recycled.set(left, right);
+        return recycled;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * A SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory, and reads back sequentially.  Fields are
+ * written with {@link Field#serialize} and read back with {@link Type#parse},
+ * so every tuple takes {@link TupleDesc#getSize} bytes.
+ * <p>
+ * A file is written once and may then be read any number of times.  It is
+ * removed by {@link #delete}, or when the JVM exits at the latest.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int count;
+
+    /**
+     * Creates an empty spill file for tuples with the given schema.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".spill");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE));
+        this.count = 0;
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file is already being read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is closed for writing");
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(t.getInt(i));
+            else
+                t.getField(i).serialize(out);
+        }
+        count++;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() {
+        return count;
+    }
+
+    /** @return the number of bytes the tuples in the file take up */
+    public long bytes() {
+        return (long) count * td.getSize();
+    }
+
+    /**
+     * Finishes writing, if that has not happened yet, and opens a reader
+     * positioned at the first tuple.
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Hashes a key to one of fanout partitions.  Each depth of partitioning
+     * uses a different hash, so a partition can be split again.
+     */
+    public static int partitionOf(Field key, int depth, int fanout) {
+        return partitionOf(key.hashCode(), depth, fanout);
+    }
+
+    /** Like {@link #partitionOf(Field, int, int)}, given the key's hash code. */
+    public static int partitionOf(int hash, int depth, int fanout) {
+        int h = hash + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % fanout;
+    }
+
+    /** Deletes the file; it may not be used afterwards. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a SpillFile in the order they were added. */
+    public class Reader {
+        private DataInputStream in;
+        private int left;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), BUFFER_SIZE));
+            left = count;
+        }
+
+        /** @return the next tuple, or null at the end of the file */
+        public Tuple next() throws IOException {
+            if (left == 0)
+                return null;
+            Tuple t = Tuple.compact(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        t.setInt(i, in.readInt());
+                    else
+                        t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new IOException("corrupt spill file " + file + ": " + e.getMessage());
+            }
+            left--;
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do; the file is read-only from here
+            }
+        }
+    }
+}
@@ -60,6 +60,30 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        Field groupfield = null;
+        if (gbfieldtype != null) {
+          groupfield = tup.getField(gbfield);
+        }
+        Integer c = count.get(groupfield);
+        if (c == null) {
+          return false;
+        }
+        count.put(groupfield, c + 1);
+        return true;
+    }
+
+    public int numGroups() {
+        return count.size();
+    }
+
+    public void combine(Aggregator other) {
+        for (Map.Entry<Field, Integer> e : ((StringAggregator) other).count.entrySet()) {
+          Integer c = count.get(e.getKey());
+          count.put(e.getKey(), c == null ? e.getValue() : c + e.getValue());
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n.  It returns the
+ * first n tuples that {@link OrderBy} would return, in the same order, but
+ * keeps only n tuples in memory: the child is read through a heap that holds
+ * the best n tuples seen so far with the worst of them on top.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final TupleDesc td;
+    private final int limit;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private transient ArrayList<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /** A tuple in the heap, numbered in the order it was read. */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param limit
+     *            the number of tuples to return.
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int limit, int orderbyField, boolean asc, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.limit = limit;
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return orderByFieldName;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // worst first: the later of two equal tuples loses, as in a stable sort
+        Comparator<Entry> worstFirst = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(b.tuple, a.tuple);
+                if (c != 0)
+                    return c;
+                return a.seq > b.seq ? -1 : (a.seq < b.seq ? 1 : 0);
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(
+                Math.max(1, Math.min(limit, 1024)), worstFirst);
+        long seq = 0;
+        while (limit > 0 && child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < limit) {
+                heap.add(e);
+            } else if (worstFirst.compare(e, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        Tuple[] sorted = new Tuple[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = heap.poll().tuple;
+        top = new ArrayList<Tuple>(Arrays.asList(sorted));
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the top tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -10,13 +10,22 @@ import java.util.ArrayList;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A compact tuple, created with {@link #compact}, keeps its INT fields in
+ * an <code>int[]</code> instead.  {@link #getInt} reads them without
+ * creating an IntField; {@link #getField} creates one each time it is
+ * called.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
     private TupleDesc td;
+    // the fields; in a compact tuple only the fields that are not INT, and
+    // null until one of them is set
     private Field[] fields;
+    // the INT fields of a compact tuple, by field index, or null
+    private int[] ints;
     private RecordId rid;
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,6 +40,25 @@ public class Tuple implements Serializable {
         this.fields =new Field[td.numFields()];
     }
 
+    /**
+     * Creates a tuple for a subclass that keeps its fields elsewhere and
+     * overrides {@link #getField} and {@link #setField}.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.td = td;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a compact tuple with the specified schema.  Its INT fields
+     * start out as 0 rather than unset, and cannot be set to null.
+     */
+    public static Tuple compact(TupleDesc td) {
+        Tuple t = new Tuple(td, null);
+        t.ints = new int[td.numFields()];
+        return t;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,6 +97,12 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+        if (ints != null && td.getFieldType(i) == Type.INT_TYPE) {
+            ints[i] = ((IntField) f).getValue();
+            return;
+        }
+        if (fields == null)
+            fields = new Field[td.numFields()];
         fields[i] = f;
     }
 
@@ -80,7 +114,37 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        if (ints != null && td.getFieldType(i) == Type.INT_TYPE)
+            return new IntField(ints[i]);
+        return fields == null ? null : fields[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT field that
+     *         has been set
+     */
+    public int getInt(int i) {
+        if (ints != null)
+            return ints[i];
+        return ((IntField) fields[i]).getValue();
+    }
+
+    /**
+     * Sets the ith field, which must be an INT field, to v.
+     */
+    public void setInt(int i, int v) {
+        if (ints != null)
+            ints[i] = v;
+        else
+            fields[i] = new IntField(v);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING field that
+     *         has been set
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
     }
 
     /**
@@ -94,10 +158,11 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuffer buffer = new StringBuffer();
-        for (int i = 0; i < fields.length - 1; i++) {
-          buffer.append(fields[i].toString() + "\t");
+        int n = td.numFields();
+        for (int i = 0; i < n - 1; i++) {
+          buffer.append(getField(i).toString() + "\t");
         }
-        buffer.append(fields[fields.length - 1] + "\n");
+        buffer.append(getField(n - 1) + "\n");
         return buffer.toString();
     }
 
@@ -113,12 +178,12 @@ public class Tuple implements Serializable {
 
             @Override
             public boolean hasNext() {
-                return currentIndex < fields.length;
+                return currentIndex < td.numFields();
             }
 
             @Override
             public Field next() {
-                return fields[currentIndex++];
+                return getField(currentIndex++);
             }
 
             public void remove() {
@@ -135,5 +200,6 @@ public class Tuple implements Serializable {
         // some code goes here
         this.td = td;
         this.fields = new Field[td.numFields()];
+        this.ints = null;
     }
 }
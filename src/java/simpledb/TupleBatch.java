@@ -0,0 +1,226 @@
+package simpledb;
+
+/**
+ * A TupleBatch holds up to {@link #CAPACITY} rows column by column: the
+ * values of an INT column are kept in an <code>int[]</code> vector, and
+ * those of any other column as Fields.  A selection vector picks out the
+ * rows that are still live, so a filter drops rows without moving any
+ * data.  Rows are addressed by their physical index; {@link #row} maps the
+ * i-th selected row to its index.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** The largest number of rows a batch holds. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+    // per column, the int vector of an INT column and null otherwise, or
+    // the other way round
+    private final int[][] ints;
+    private final Field[][] fields;
+    private RecordId[] rids;
+    private int rows;
+    // the indexes of the selected rows, or null if every row is selected
+    private int[] sel;
+    private int selected;
+
+    /** Creates an empty batch for rows of the given schema. */
+    public TupleBatch(TupleDesc td) {
+        this(td, true);
+    }
+
+    private TupleBatch(TupleDesc td, boolean allocate) {
+        int n = td.numFields();
+        this.td = td;
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        if (allocate) {
+            for (int c = 0; c < n; c++) {
+                if (td.getFieldType(c) == Type.INT_TYPE)
+                    ints[c] = new int[CAPACITY];
+                else
+                    fields[c] = new Field[CAPACITY];
+            }
+            rids = new RecordId[CAPACITY];
+        }
+    }
+
+    /**
+     * Creates a batch with no storage of its own, for {@link #project}.
+     */
+    public static TupleBatch view(TupleDesc td) {
+        return new TupleBatch(td, false);
+    }
+
+    /** @return the schema of the rows */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return sel == null ? rows : selected;
+    }
+
+    /** @return the physical index of the i-th selected row */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return the number of rows in the batch, selected or not */
+    public int rows() {
+        return rows;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return rows == CAPACITY;
+    }
+
+    /**
+     * @return the values of INT column col, by physical row, or null if the
+     *         column is not an INT column
+     */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /** @return the value of INT column col in the given row */
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /**
+     * @return the value of column col in the given row; for an INT column,
+     *         a new IntField
+     */
+    public Field getField(int col, int row) {
+        int[] v = ints[col];
+        return v != null ? new IntField(v[row]) : fields[col][row];
+    }
+
+    /** @return the record id of the given row, if it came from a table */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /** @return the given row as a compact Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = Tuple.compact(td);
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                t.setInt(c, ints[c][row]);
+            else
+                t.setField(c, fields[c][row]);
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Narrows the selection to the given rows.  The batch keeps the array
+     * rather than copying it, so the caller must not change it until the
+     * batch is cleared.
+     *
+     * @param rows the physical indexes of the rows that stay selected, in
+     *            increasing order
+     * @param n the number of rows in the array
+     */
+    public void setSelection(int[] rows, int n) {
+        sel = rows;
+        selected = n;
+    }
+
+    /** Empties the batch. */
+    public void clear() {
+        rows = 0;
+        sel = null;
+        selected = 0;
+    }
+
+    /**
+     * Appends a row with the fields of t.  Rows can only be added to a
+     * batch whose selection has not been narrowed.
+     */
+    public void add(Tuple t) {
+        int r = append();
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                ints[c][r] = t.getInt(c);
+            else
+                fields[c][r] = t.getField(c);
+        }
+        rids[r] = t.getRecordId();
+    }
+
+    /**
+     * Appends a row made of a row of left followed by a row of right, as
+     * a join outputs.
+     */
+    public void addJoined(TupleBatch left, int lrow, TupleBatch right, int rrow) {
+        int r = append();
+        int n = left.ints.length;
+        for (int c = 0; c < n; c++)
+            copy(c, r, left, c, lrow);
+        for (int c = 0; c < right.ints.length; c++)
+            copy(n + c, r, right, c, rrow);
+        rids[r] = null;
+    }
+
+    /** @return the index of a new row at the end of the batch */
+    private int append() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (sel != null)
+            throw new IllegalStateException("batch selection has been narrowed");
+        return rows++;
+    }
+
+    private void copy(int col, int row, TupleBatch from, int fcol, int frow) {
+        if (ints[col] != null)
+            ints[col][row] = from.ints[fcol][frow];
+        else
+            fields[col][row] = from.fields[fcol][frow];
+    }
+
+    /**
+     * Makes this batch, created with {@link #view}, show the given columns
+     * of another batch, and the same selection, without copying any
+     * values.  The view is valid as long as the other batch is unchanged.
+     *
+     * @param from the batch to show
+     * @param cols for each column of this batch, the column of from it is
+     */
+    public void project(TupleBatch from, int[] cols) {
+        for (int c = 0; c < cols.length; c++) {
+            ints[c] = from.ints[cols[c]];
+            fields[c] = from.fields[cols[c]];
+        }
+        rids = from.rids;
+        rows = from.rows;
+        sel = from.sel;
+        selected = from.selected;
+    }
+
+    /**
+     * Reads the next batch of an iterator, which need not be a
+     * {@link BatchIterator}: the tuples of any other iterator are copied
+     * into the given buffer.
+     *
+     * @param it an open iterator
+     * @param buffer a batch of the iterator's schema
+     * @return a batch of at least one selected row, or null if the iterator
+     *         has no more tuples
+     */
+    public static TupleBatch next(DbIterator it, TupleBatch buffer)
+            throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        buffer.clear();
+        while (!buffer.isFull() && it.hasNext())
+            buffer.add(it.next());
+        return buffer.rows == 0 ? null : buffer;
+    }
+}
@@ -69,12 +69,27 @@ public class TupleDesc implements Serializable {
      * */
     public Iterator<TDItem> iterator() {
         // some code goes here
-        return tdItems.iterator();
+        List<TDItem> items = new ArrayList<TDItem>(types.length);
+        for (int i = 0; i < types.length; i++)
+          items.add(new TDItem(types[i], names[i]));
+        return Collections.unmodifiableList(items).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
-    public List<TDItem> tdItems = new LinkedList<TDItem>();
+    private final Type[] types;
+    private final String[] names;
+    // the byte offset of each field within a tuple, and the tuple size
+    private final int[] offsets;
+    private final int size;
+    // the index of the first field with each name
+    private final HashMap<String, Integer> nameIndex;
+    // the results of merging this descriptor with others, keyed on the
+    // identity of the right-hand descriptor, so that an operator merging
+    // per row builds each merge only once
+    private transient volatile Map<TupleDesc, TupleDesc> merges;
+    // merges kept per descriptor before the table is started afresh
+    private static final int MAX_MERGES = 64;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -89,10 +104,20 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         // some code goes here
-        for (int i = 0; i < typeAr.length; i++) {
-          TDItem tdItem = new TDItem(typeAr[i], fieldAr[i]);
-          tdItems.add(tdItem);
+        int n = typeAr.length;
+        types = typeAr.clone();
+        names = new String[n];
+        offsets = new int[n];
+        nameIndex = new HashMap<String, Integer>();
+        int off = 0;
+        for (int i = 0; i < n; i++) {
+          names[i] = fieldAr[i];
+          offsets[i] = off;
+          off += types[i].getLen();
+          if (names[i] != null && !nameIndex.containsKey(names[i]))
+            nameIndex.put(names[i], i);
         }
+        size = off;
     }
 
     /**
@@ -113,7 +138,7 @@ public class TupleDesc implements Serializable {
      */
     public int numFields() {
         // some code goes here
-        return tdItems.size();
+        return types.length;
     }
 
     /**
@@ -127,10 +152,10 @@ public class TupleDesc implements Serializable {
      */
     public String getFieldName(int i) throws NoSuchElementException {
         // some code goes here
-        if (i < 0 || i >= numFields()) {
+        if (i < 0 || i >= types.length) {
           throw new NoSuchElementException();
         }
-        return tdItems.get(i).fieldName;
+        return names[i];
     }
 
     /**
@@ -145,10 +170,23 @@ public class TupleDesc implements Serializable {
      */
     public Type getFieldType(int i) throws NoSuchElementException {
         // some code goes here
-        if (i < 0 || i >= numFields()) {
+        if (i < 0 || i >= types.length) {
           throw new NoSuchElementException();
         }
-        return tdItems.get(i).fieldType;
+        return types[i];
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple.
+     *
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= types.length) {
+          throw new NoSuchElementException();
+        }
+        return offsets[i];
     }
 
     /**
@@ -162,13 +200,11 @@ public class TupleDesc implements Serializable {
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
         // some code goes here
-        for (int i = 0; i < tdItems.size(); i++) {
-          String fName = tdItems.get(i).fieldName;
-          if (fName!= null && fName.equals(name)) {
-            return i;
-          }
+        Integer i = name == null ? null : nameIndex.get(name);
+        if (i == null) {
+          throw new NoSuchElementException();
         }
-        throw new NoSuchElementException();
+        return i;
     }
 
     /**
@@ -177,16 +213,13 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
-        for (int i = 0; i < tdItems.size(); i++) {
-          size += tdItems.get(i).fieldType.getLen();
-        }
         return size;
     }
 
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
+     * Merging the same pair again returns the same TupleDesc.
      * 
      * @param td1
      *            The TupleDesc with the first fields of the new TupleDesc
@@ -196,19 +229,59 @@ public class TupleDesc implements Serializable {
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
         // some code goes here
+        Map<TupleDesc, TupleDesc> m = td1.merges();
+        synchronized (m) {
+          TupleDesc cached = m.get(td2);
+          if (cached != null)
+            return cached;
+        }
         int size1 = td1.numFields();
         int size2 = td2.numFields();
         Type[] td = new Type[size1 + size2];
         String[] name = new String[size1 + size2];
-        for (int i = 0; i < size1; i++) {
-          td[i] = td1.getFieldType(i);
-          name[i] = td1.getFieldName(i);
+        System.arraycopy(td1.types, 0, td, 0, size1);
+        System.arraycopy(td1.names, 0, name, 0, size1);
+        System.arraycopy(td2.types, 0, td, size1, size2);
+        System.arraycopy(td2.names, 0, name, size1, size2);
+        TupleDesc result = new TupleDesc(td, name);
+        synchronized (m) {
+          // another thread may have merged the pair meanwhile
+          TupleDesc cached = m.get(td2);
+          if (cached != null)
+            return cached;
+          if (m.size() >= MAX_MERGES)
+            m.clear();
+          m.put(td2, result);
         }
-        for (int i = 0; i < size2; i++) {
-          td[i + size1] = td2.getFieldType(i);
-          name[i + size1] = td2.getFieldName(i);
+        return result;
+    }
+
+    /** @return the table of merges with this descriptor on the left */
+    private Map<TupleDesc, TupleDesc> merges() {
+        Map<TupleDesc, TupleDesc> m = merges;
+        if (m == null) {
+          synchronized (this) {
+            m = merges;
+            if (m == null)
+              merges = m = new IdentityHashMap<TupleDesc, TupleDesc>();
+          }
         }
-        return new TupleDesc(td, name);
+        return m;
+    }
+
+    /**
+     * @param fields the indexes of the fields to keep, in the order they
+     *            should appear
+     * @return a TupleDesc with the types and names of the given fields
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] t = new Type[fields.length];
+        String[] n = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+          t[i] = getFieldType(fields[i]);
+          n[i] = names[fields[i]];
+        }
+        return new TupleDesc(t, n);
     }
 
     /**
@@ -229,26 +302,15 @@ public class TupleDesc implements Serializable {
       if (getClass() != obj.getClass())
         return false;
       TupleDesc other = (TupleDesc) obj;
-      if (tdItems == null) {
-        if (other.tdItems != null)
-          return false;
-      } else {
-        int nItems = tdItems.size();
-        if (other.tdItems.size() != nItems)
-          return false;
-        for (int i = 0; i < nItems; i++) {
-          if (tdItems.get(i).fieldType != other.tdItems.get(i).fieldType)
-            return false;
-        }
-      }
-      return true; 
+      return Arrays.equals(types, other.types);
     }
 
     public int hashCode() {
         // If you want to use TupleDesc as keys for HashMap, implement this so
         // that equal objects have equals hashCode() results
         int result = 1;
-        result = 31 * result + ((tdItems == null) ? 0 : tdItems.hashCode());
+        for (int i = 0; i < types.length; i++)
+          result = 31 * result + types[i].ordinal();
         return result;
     }
 
@@ -263,8 +325,8 @@ public class TupleDesc implements Serializable {
         // some code goes here
         StringBuffer buffer = new StringBuffer();
         for (int i = 0; i < numFields(); i++) {
-          buffer.append(tdItems.get(i).fieldType.toString() + "(");
-          buffer.append(tdItems.get(i).fieldName + "),");
+          buffer.append(types[i].toString() + "(");
+          buffer.append(names[i] + "),");
         }
         return buffer.toString().substring(0, buffer.length() - 1);
     }
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A TuplePage is a page of a {@link HeapFile} that holds tuples in numbered
+ * slots, and can read a single field of a slot without materializing the
+ * rest of its tuple.  {@link HeapPage} stores each tuple as a row;
+ * {@link PaxPage} stores each column together.
+ */
+public interface TuplePage extends Page {
+
+    /** @return the schema of the tuples on this page */
+    TupleDesc getTupleDesc();
+
+    /** @return the number of tuples that can still be inserted */
+    int getNumEmptySlots();
+
+    /** @return true if the given slot holds a tuple */
+    boolean isSlotUsed(int slot);
+
+    /** @return the tuple in a slot, or null if the slot is empty */
+    Tuple getTuple(int slot);
+
+    /** @return INT field col of the tuple in a used slot */
+    int getInt(int slot, int col);
+
+    /** @return field col of the tuple in a used slot */
+    Field getField(int slot, int col);
+
+    /**
+     * Adds a tuple to the page and sets its record id.
+     * @throws DbException if the page is full or the schema is wrong
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Removes a tuple from the page and clears its record id.
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy every
+     * given predicate, decoding only the given columns of each.
+     *
+     * @param columns the fields the returned tuples hold, in order, or
+     *            null for all of them
+     */
+    Iterator<Tuple> iterator(Predicate[] predicates, int[] columns);
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drains several DbIterators on threads of their own and hands their tuples
+ * to a single consumer through a bounded queue, in batches.  Each producer
+ * is opened, read and closed on its thread.  A TupleQueue runs once: to run
+ * the producers again, make a new one.
+ */
+class TupleQueue {
+
+    /** Number of tuples a producer puts on the queue at a time. */
+    static final int BATCH_TUPLES = 256;
+
+    /** Number of batches the queue holds before producers wait. */
+    static final int QUEUE_BATCHES = 64;
+
+    // how long a producer waits for room on the queue before checking
+    // whether the consumer has gone away
+    private static final long OFFER_MILLIS = 50;
+
+    // put on the queue by a producer that has finished
+    private static final List<Tuple> DONE = new ArrayList<Tuple>(0);
+
+    private final String name;
+    private final BlockingQueue<List<Tuple>> queue =
+        new ArrayBlockingQueue<List<Tuple>>(QUEUE_BATCHES);
+    private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    private volatile boolean closed;
+    private ExecutorService pool;
+    private int producers;
+    private int finished;
+    private List<Tuple> batch;
+    private int pos;
+
+    /**
+     * @param name the name of the producer threads
+     */
+    TupleQueue(String name) {
+        this.name = name;
+    }
+
+    /** Starts a thread for each producer. */
+    void start(DbIterator[] ps) {
+        producers = ps.length;
+        pool = Executors.newFixedThreadPool(Math.max(1, ps.length), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (final DbIterator p : ps) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    produce(p);
+                }
+            });
+        }
+    }
+
+    boolean hasNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            if (finished == producers) {
+                rethrow();
+                return false;
+            }
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for " + name);
+            }
+            pos = 0;
+            if (batch == DONE) {
+                finished++;
+                batch = null;
+            }
+        }
+        return true;
+    }
+
+    /** @return the next tuple, or null if there are no more */
+    Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            return null;
+        return batch.get(pos++);
+    }
+
+    /**
+     * Stops the producers and waits for them to finish.  A producer notices
+     * between tuples, or within OFFER_MILLIS if it is waiting for room on
+     * the queue.
+     */
+    void close() {
+        closed = true;
+        queue.clear();
+        batch = null;
+        if (pool == null)
+            return;
+        pool.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(OFFER_MILLIS, TimeUnit.MILLISECONDS))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** @return true once close has been called */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** Records the first error of any producer, to be thrown to the consumer. */
+    void fail(Throwable e) {
+        error.compareAndSet(null, e);
+    }
+
+    /** Throws the first error a producer ran into, if any. */
+    void rethrow() throws DbException, TransactionAbortedException {
+        Throwable e = error.get();
+        if (e == null)
+            return;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new DbException(name + " failed: " + e);
+    }
+
+    private void produce(DbIterator p) {
+        ArrayList<Tuple> out = new ArrayList<Tuple>(BATCH_TUPLES);
+        try {
+            p.open();
+            try {
+                // after one producer fails, the rest stop early
+                while (!closed && error.get() == null && p.hasNext()) {
+                    out.add(p.next());
+                    if (out.size() == BATCH_TUPLES) {
+                        put(out);
+                        out = new ArrayList<Tuple>(BATCH_TUPLES);
+                    }
+                }
+            } finally {
+                p.close();
+            }
+            if (!out.isEmpty())
+                put(out);
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            try {
+                put(DONE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void put(List<Tuple> b) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(b, OFFER_MILLIS, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha).  Pages seen for the first time go
+ * into a FIFO queue, A1in.  Pages evicted from A1in are remembered (by id
+ * only) in a bounded ghost queue, A1out.  Only a page that is referenced
+ * again while it is remembered in A1out is admitted into the main LRU queue,
+ * Am.  A sequential scan therefore only ever cycles through A1in and never
+ * displaces the pages in Am.
+ * <p>
+ * A prefetched page enters A1in like any new page; it is promoted from A1out
+ * only when it is actually requested.
+ */
+public class TwoQReplacementPolicy implements ReplacementPolicy {
+
+    /** Default share of resident pages A1in may hold before it is trimmed. */
+    public static final double DEFAULT_KIN = 0.25;
+
+    /** Default number of page ids remembered in A1out. */
+    public static final int DEFAULT_KOUT = 1024;
+
+    private final double kin;
+    private final int kout;
+
+    // insertion-ordered: head is the oldest page
+    private LinkedHashSet<PageId> a1in;
+    private LinkedHashSet<PageId> a1out;
+    // access-ordered: head is the least recently used page
+    private LinkedHashMap<PageId, Boolean> am;
+    // prefetched pages whose first request has not come yet
+    private HashSet<PageId> unused;
+
+    public TwoQReplacementPolicy() {
+        this(DEFAULT_KIN, DEFAULT_KOUT);
+    }
+
+    /**
+     * @param kin the fraction of resident pages A1in should be trimmed to
+     * @param kout the number of ghost entries kept in A1out
+     */
+    public TwoQReplacementPolicy(double kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        a1in = new LinkedHashSet<PageId>();
+        a1out = new LinkedHashSet<PageId>();
+        am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+        unused = new HashSet<PageId>();
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (am.containsKey(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void pagePrefetched(PageId pid) {
+        if (!am.containsKey(pid) && a1in.add(pid)) {
+            // leave any A1out entry for the real request to find
+            unused.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (unused.remove(pid)) {
+            if (a1out.remove(pid)) {
+                a1in.remove(pid);
+                am.put(pid, Boolean.TRUE);
+            }
+            return;
+        }
+        // a hit in A1in is deliberately ignored (correlated reference)
+        am.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        unused.remove(pid);
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(EvictionFilter filter) {
+        int resident = a1in.size() + am.size();
+        PageId victim = null;
+        if (a1in.size() > Math.max(1, (int) (kin * resident))) {
+            victim = firstEvictable(a1in, filter);
+            if (victim == null)
+                victim = firstEvictable(am.keySet(), filter);
+        } else {
+            victim = firstEvictable(am.keySet(), filter);
+            if (victim == null)
+                victim = firstEvictable(a1in, filter);
+        }
+        return victim;
+    }
+
+    private PageId firstEvictable(Collection<PageId> queue, EvictionFilter filter) {
+        for (PageId pid : queue) {
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
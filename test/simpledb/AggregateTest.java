@@ -176,6 +176,53 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate over two group-by fields with several aggregates
+   */
+  @Test public void multiAggregate() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    3, 1, 2,
+                    1, 2, 8,
+                    3, 1, 5 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+            Aggregator.Op.MAX }, new int[] { 0, 1 });
+    assertEquals(5, op.getTupleDesc().numFields());
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 2, 8, 6,
+                    1, 2, 2, 12, 8,
+                    3, 1, 2, 7, 5 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() and rewind() when no groups fit in
+   * memory and every group is aggregated from a spilled partition
+   */
+  @Test public void spilledAggregate() throws Exception {
+    Aggregate op = new Aggregate(scan1, 1, 0,
+        Aggregator.Op.AVG, 0);
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+    // the partitions are read again, to the same groups and averages
+    op.rewind();
+    avg.rewind();
+    TestUtil.matchAllTuples(avg, op);
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
   /**
    * JUnit suite target
    */
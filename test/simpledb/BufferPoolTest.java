@@ -0,0 +1,272 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /** A HeapFile that counts its page reads, and makes each one slow. */
+    static class CountingFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) throws IOException {
+            reads.incrementAndGet();
+            try {
+                // leave the other callers time to pile up on the load
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** @return a new counting table of two INT columns, in the catalog */
+    static CountingFile countingTable(int rows) throws IOException {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, null);
+        CountingFile cf = new CountingFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /**
+     * Runs getPage on each of the given pages, iterations times, on
+     * THREADS threads that start together.
+     *
+     * @return the pages each thread got, in order
+     */
+    private static List<List<Page>> getPages(final List<PageId> pids,
+            final int iterations) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Page>>> results = new ArrayList<Future<List<Page>>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(pool.submit(new Callable<List<Page>>() {
+                public List<Page> call() throws Exception {
+                    TransactionId tid = new TransactionId();
+                    List<Page> got = new ArrayList<Page>();
+                    start.await();
+                    for (int n = 0; n < iterations; n++) {
+                        for (PageId pid : pids)
+                            got.add(Database.getBufferPool().getPage(tid, pid,
+                                    Permissions.READ_ONLY));
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                    return got;
+                }
+            }));
+        }
+        List<List<Page>> pages = new ArrayList<List<Page>>();
+        for (Future<List<Page>> f : results)
+            pages.add(f.get(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        return pages;
+    }
+
+    /**
+     * Unit test for BufferPool.getPage: threads asking for the same
+     * missing page at once share a single read of it.
+     */
+    @Test public void missingPageReadOnce() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        CountingFile cf = countingTable(10);
+        PageId pid = new HeapPageId(cf.getId(), 0);
+
+        List<List<Page>> pages = getPages(Collections.singletonList(pid), 1);
+
+        assertEquals(1, cf.reads.get());
+        Page first = pages.get(0).get(0);
+        for (List<Page> got : pages)
+            assertSame(first, got.get(0));
+        assertEquals(1, bp.getMissCount());
+        assertEquals(THREADS - 1, bp.getHitCount());
+    }
+
+    /**
+     * Unit test for BufferPool.getPage: threads hitting resident pages all
+     * get the cached pages, and nothing is read again.
+     */
+    @Test public void concurrentHits() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        CountingFile cf = countingTable(2500);
+        List<PageId> pids = new ArrayList<PageId>();
+        Map<PageId, Page> resident = new HashMap<PageId, Page>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            PageId pid = new HeapPageId(cf.getId(), i);
+            pids.add(pid);
+            resident.put(pid, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+        bp.resetStats();
+
+        List<List<Page>> pages = getPages(pids, 200);
+
+        assertEquals(4, cf.reads.get());
+        for (List<Page> got : pages) {
+            for (int i = 0; i < got.size(); i++)
+                assertSame(resident.get(pids.get(i % pids.size())), got.get(i));
+        }
+        assertEquals(0, bp.getMissCount());
+        assertEquals(THREADS * 200 * pids.size(), bp.getHitCount());
+    }
+
+    /** @return the number of tuples a scan of the given pages returns */
+    private static int scan(HeapFile f, TransactionId tid, int first, int end)
+            throws Exception {
+        DbFileIterator it = f.iterator(tid, first, end);
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage: a page read ahead is a hit,
+     * not a miss, when it is asked for.
+     */
+    @Test public void prefetchedPageIsHit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        CountingFile cf = countingTable(10);
+        PageId pid = new HeapPageId(cf.getId(), 0);
+
+        bp.prefetchPage(pid);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        assertEquals(1, cf.reads.get());
+        assertEquals(1, bp.getReadAheadCount());
+        assertEquals(0, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * Unit test for HeapFile scans reading ahead: a sequential scan reads
+     * pages ahead of need, a scan jumping between single pages does not,
+     * and neither does one with read-ahead turned off.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        assertEquals(10, hf.numPages());
+        // small enough to be read through the shared pool
+        assertTrue(hf.numPages() <= bp.getNumPages() / 4);
+        TransactionId tid = new TransactionId();
+
+        assertEquals(5000, scan(hf, tid, 0, hf.numPages()));
+        assertTrue(bp.getReadAheadCount() > 0);
+        assertEquals(hf.numPages(), bp.getReadAheadCount() + bp.getMissCount());
+
+        bp = Database.resetBufferPool(50);
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < hf.numPages(); i++)
+            order.add(i);
+        Collections.shuffle(order, new Random(1));
+        int rows = 0;
+        for (int page : order)
+            rows += scan(hf, tid, page, page + 1);
+        assertEquals(5000, rows);
+        assertEquals(0, bp.getReadAheadCount());
+        assertEquals(hf.numPages(), bp.getMissCount());
+
+        bp = Database.resetBufferPool(50);
+        hf.setReadAhead(0);
+        assertEquals(5000, scan(hf, tid, 0, hf.numPages()));
+        assertEquals(0, bp.getReadAheadCount());
+        assertEquals(hf.numPages(), bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /** @return how many of the given pages are resident in the pool */
+    private static int residentCount(BufferPool bp, List<PageId> pids) {
+        int n = 0;
+        for (PageId pid : pids) {
+            if (bp.isResident(pid))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Unit test for large scans through a BufferRing: scanning a table of
+     * more than a quarter of the pool leaves a warm small table cached, and
+     * never holds more than the pool plus one ring of pages.  Every page of
+     * the scan comes from the ring, nothing is evicted from the shared
+     * pool, and closing the scan gives the ring's frames back.
+     */
+    @Test public void ringScanKeepsWorkingSet() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 30000, null, null);
+        assertTrue(large.numPages() > bp.getNumPages() / 4);
+        int ringPages = bp.newRing().getCapacity();
+
+        List<PageId> smallPids = new ArrayList<PageId>();
+        List<PageId> all = new ArrayList<PageId>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < small.numPages(); i++) {
+            PageId pid = new HeapPageId(small.getId(), i);
+            smallPids.add(pid);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        all.addAll(smallPids);
+        for (int i = 0; i < large.numPages(); i++)
+            all.add(new HeapPageId(large.getId(), i));
+
+        bp.resetStats();
+        SeqScan scan = new SeqScan(tid, large.getId(), "");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rows++;
+            assertTrue(residentCount(bp, all) <= bp.getNumPages() + ringPages);
+        }
+        BufferRing ring = scan.getRing();
+        assertNotNull(ring);
+        assertEquals(ringPages, ring.getCapacity());
+        assertEquals(large.numPages(), ring.getRingPageCount());
+        assertEquals(0, ring.getSharedPageCount());
+        assertEquals(0, bp.getEvictionCount());
+        scan.close();
+        bp.transactionComplete(tid);
+
+        // read-aheads still in flight at close drop their pages too
+        for (PageId pid : all) {
+            while (bp.isLoading(pid))
+                Thread.sleep(1);
+        }
+        assertEquals(30000, rows);
+        assertEquals(0, ring.usedSlots());
+        assertEquals(smallPids.size(), residentCount(bp, smallPids));
+        assertEquals(smallPids.size(), residentCount(bp, all));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BufferRingTest {
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Unit test for BufferRing slots: a full ring hands out its oldest page
+     * for recycling, and slots are only given back explicitly.
+     */
+    @Test public void recyclesOldestFirst() {
+        BufferRing ring = new BufferRing(2);
+        assertTrue(ring.tryClaim());
+        assertTrue(ring.add(page(0)));
+        assertTrue(ring.tryClaim());
+        assertTrue(ring.add(page(1)));
+        assertFalse(ring.tryClaim());
+
+        assertEquals(page(0), ring.oldest());
+        assertFalse(ring.tryClaim());
+        ring.free();
+        assertTrue(ring.tryClaim());
+    }
+
+    /**
+     * Unit test for BufferRing.remove and close: a removed page frees its
+     * slot, and a closed ring accepts no more pages.
+     */
+    @Test public void removeAndClose() {
+        BufferRing ring = new BufferRing(1);
+        assertTrue(ring.tryClaim());
+        ring.add(page(0));
+        assertTrue(ring.remove(page(0)));
+        assertFalse(ring.remove(page(0)));
+        assertTrue(ring.tryClaim());
+        ring.add(page(1));
+
+        assertEquals(1, ring.close().size());
+        assertNull(ring.oldest());
+        assertFalse(ring.tryClaim());
+        assertFalse(ring.add(page(2)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
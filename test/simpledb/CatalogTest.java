@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +73,62 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.clear() closing the files of the tables
+     */
+    @Test public void clearClosesFiles() throws Exception {
+        final int[] closes = new int[1];
+        HeapFile hf = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(
+                2, 10, 100, null, null), Utility.getTupleDesc(2)) {
+            private static final long serialVersionUID = 1L;
+
+            public synchronized void close() throws java.io.IOException {
+                closes[0]++;
+                super.close();
+            }
+        };
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+
+        Database.getCatalog().clear();
+        assertEquals(1, closes[0]);
+        try {
+            Database.getCatalog().getDbFile(hf.getId());
+            Assert.fail("Should not find a table after clear");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+        // a closed file reopens its channel when it is read again
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        hf.readPage(pid);
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema() opening a table marked mmap in
+     * memory-mapped mode
+     */
+    @Test public void loadSchemaMapped() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(schema));
+        out.println("plain (a int, b int)");
+        out.println("mapped (a int, b int) mmap");
+        out.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile plain = (HeapFile) Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("plain"));
+        HeapFile mapped = (HeapFile) Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("mapped"));
+        assertFalse(plain.isMemoryMapped());
+        assertTrue(mapped.isMemoryMapped());
+    }
+
     /**
      * JUnit suite target
      */
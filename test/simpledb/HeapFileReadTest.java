@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.*;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,127 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() of the last page, and of pages
+     * that are past the end of the file or only partly in it
+     */
+    @Test
+    public void readPageBounds() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        assertEquals(2, twoPageFile.numPages());
+        HeapPage last = (HeapPage) twoPageFile.readPage(
+                new HeapPageId(twoPageFile.getId(), 1));
+        assertEquals(504 - 16, last.getNumEmptySlots());
+
+        try {
+            twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // half a page at the end of the file is not a page
+        FileOutputStream out = new FileOutputStream(twoPageFile.getFile(), true);
+        out.write(new byte[BufferPool.PAGE_SIZE / 2]);
+        out.close();
+        assertEquals(2, twoPageFile.numPages());
+        try {
+            twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() after a reader was interrupted,
+     * which closes the file's channel under every reader
+     */
+    @Test
+    public void readAfterInterrupt() throws Exception {
+        final HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        final HeapPageId pid0 = new HeapPageId(twoPageFile.getId(), 0);
+        final HeapPageId pid1 = new HeapPageId(twoPageFile.getId(), 1);
+        byte[] before = twoPageFile.readPage(pid1).getPageData();
+
+        final Exception[] thrown = new Exception[1];
+        Thread reader = new Thread() {
+            public void run() {
+                Thread.currentThread().interrupt();
+                try {
+                    twoPageFile.readPage(pid0);
+                } catch (Exception e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        reader.start();
+        reader.join();
+        assertTrue(thrown[0] instanceof java.nio.channels.ClosedByInterruptException);
+
+        // the channel is reopened for the readers that were not interrupted
+        assertTrue(Arrays.equals(before, twoPageFile.readPage(pid1).getPageData()));
+        assertNotNull(twoPageFile.readPage(pid0));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode: the pages are
+     * byte for byte those read through the channel
+     */
+    @Test
+    public void readMapped() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1200,
+                null, null);
+        HeapFile mapped = new HeapFile(threePageFile.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(3, mapped.numPages());
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(threePageFile.getId(), i);
+            assertTrue(Arrays.equals(threePageFile.readPage(pid).getPageData(),
+                    mapped.readPage(pid).getPageData()));
+        }
+        try {
+            mapped.readPage(new HeapPageId(mapped.getId(), 3));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        mapped.close();
+    }
+
+    /**
+     * Unit test for a memory-mapped HeapFile growing: a page appended by
+     * insertTuple and then written is read back through the remapped
+     * last segment
+     */
+    @Test
+    public void appendMapped() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapFile mapped = new HeapFile(full.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertEquals(1, mapped.numPages());
+        // map the last segment as it is now, one page long
+        HeapPageId pid0 = new HeapPageId(mapped.getId(), 0);
+        assertEquals(0, ((HeapPage) mapped.readPage(pid0)).getNumEmptySlots());
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        ArrayList<Page> dirty = mapped.insertTuple(tid, t);
+        assertEquals(1, dirty.size());
+        Page appended = dirty.get(0);
+        assertEquals(1, appended.getId().pageNumber());
+        assertEquals(2, mapped.numPages());
+        mapped.writePage(appended);
+
+        HeapPage back = (HeapPage) mapped.readPage(appended.getId());
+        assertTrue(Arrays.equals(appended.getPageData(), back.getPageData()));
+        assertEquals(503, back.getNumEmptySlots());
+        Tuple read = back.iterator().next();
+        assertEquals(-1, read.getInt(0));
+        assertEquals(-2, read.getInt(1));
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +243,80 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorRewind() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+
+        DbFileIterator it = twoPageFile.iterator(tid);
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (it.hasNext()) {
+                assertNotNull(it.next());
+                count += 1;
+            }
+            assertEquals(520, count);
+            it.rewind();
+        }
+        it.close();
+    }
+
+    /**
+     * A slotted file of short strings takes fewer pages than a fixed-size
+     * one, reads back the same tuples, and keeps inserted tuples across
+     * getPageData.
+     */
+    @Test
+    public void slottedStrings() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 1000; i++)
+            out.println(i + ",name" + i);
+        out.close();
+
+        File fixedFile = File.createTempFile("fixed", ".dat");
+        File slottedFile = File.createTempFile("slotted", ".dat");
+        fixedFile.deleteOnExit();
+        slottedFile.deleteOnExit();
+        HeapFileEncoder.convert(text, fixedFile, BufferPool.PAGE_SIZE, 2, types, ',', false);
+        HeapFileEncoder.convert(text, slottedFile, BufferPool.PAGE_SIZE, 2, types, ',', true);
+        TupleDesc std = new TupleDesc(types);
+        HeapFile fixed = new HeapFile(fixedFile, std);
+        HeapFile slotted = new HeapFile(slottedFile, std, false, true);
+        Database.getCatalog().addTable(fixed, "fixed");
+        Database.getCatalog().addTable(slotted, "slotted");
+        assertTrue(slotted.numPages() * 3 <= fixed.numPages());
+
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count, t.getInt(0));
+            assertEquals("name" + count, t.getString(1));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+
+        HeapPageId pid = new HeapPageId(slotted.getId(), slotted.numPages() - 1);
+        HeapPage page = (HeapPage) slotted.readPage(pid);
+        Tuple t = new Tuple(std);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("inserted", Type.STRING_LEN));
+        page.insertTuple(t);
+        page = new HeapPage(pid, page.getPageData());
+        Tuple last = null;
+        Iterator<Tuple> tuples = page.iterator();
+        while (tuples.hasNext())
+            last = tuples.next();
+        assertEquals(-1, last.getInt(0));
+        assertEquals("inserted", last.getString(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -120,6 +121,72 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage(HeapPageId, ByteBuffer): a page decoded from a
+     * slice of a larger buffer keeps its before image once the buffer
+     * changes.
+     */
+    @Test public void readFromBuffer() throws Exception {
+        byte[] file = new byte[2 * BufferPool.PAGE_SIZE];
+        System.arraycopy(EXAMPLE_DATA, 0, file, BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE);
+        ByteBuffer slice = ByteBuffer.wrap(file, BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE).slice();
+
+        HeapPage page = new HeapPage(pid, slice);
+        assertEquals(484, page.getNumEmptySlots());
+        Tuple first = page.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+
+        page.deleteTuple(first);
+        page.markDirty(true, new TransactionId());
+        Arrays.fill(file, (byte) 0);
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+        // the slots not yet decoded are read from the copy
+        assertEquals(EXAMPLE_VALUES[19][1], page.getInt(19, 1));
+    }
+
+    /**
+     * Unit test for HeapPage.getInt(), getField() and getTuple()
+     */
+    @Test public void typedAccessors() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; i++) {
+            assertEquals(EXAMPLE_VALUES[i][0], page.getInt(i, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+        }
+        Tuple t = page.getTuple(3);
+        assertTrue(t == page.getTuple(3));
+        assertEquals(new RecordId(pid, 3), t.getRecordId());
+        assertEquals(EXAMPLE_VALUES[3][1], ((IntField) t.getField(1)).getValue());
+        assertTrue(page.getTuple(20) == null);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void iteratorWithPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] ps = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947))
+        };
+        Iterator<Tuple> it = page.iterator(ps);
+        for (int[] v : EXAMPLE_VALUES) {
+            if (v[0] > 20000 && v[1] <= 44947)
+                assertEquals(v[0], ((IntField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples have not
+     * all been decoded
+     */
+    @Test public void pageDataOfLazyPage() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.getTuple(5);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -126,6 +126,34 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator avg when tuples of different groups are
+   * interleaved, and without grouping
+   */
+  @Test public void mergeAvgInterleaved() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 10,
+                    1, 4,
+                    3, 20,
+                    1, 7 });
+    IntegerAggregator grouped = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator total = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.AVG);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      grouped.mergeTupleIntoGroup(t);
+      total.mergeTupleIntoGroup(t);
+    }
+
+    DbIterator it = grouped.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 4, 3, 15 }), it);
+    it = total.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 8 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
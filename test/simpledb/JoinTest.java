@@ -105,6 +105,43 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.setRecycleOutput(): every row comes back in the
+   * same tuple, with the right fields
+   */
+  @Test public void recycleOutput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.setRecycleOutput(true);
+    op.open();
+    eqJoin.open();
+    Tuple first = null;
+    while (eqJoin.hasNext()) {
+      Tuple actual = op.next();
+      if (first == null)
+        first = actual;
+      assertTrue(first == actual);
+      assertTrue(TestUtil.compareTuples(eqJoin.next(), actual));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Setting a field of a join's output tuple leaves the input tuples alone
+   */
+  @Test public void setFieldOfOutput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.open();
+    Tuple t = op.next();
+    t.setField(2, new IntField(42));
+    assertEquals(new IntField(42), t.getField(2));
+    assertEquals(new IntField(2), t.getField(3));
+
+    scan2.rewind();
+    assertEquals(new IntField(1), scan2.next().getField(0));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockManagerTest {
+
+    private LockManager lm;
+    private PageId p0;
+    private PageId p1;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Runs an acquire on another thread and reports whether it got the lock
+     * within a short time.
+     */
+    private static class Acquirer extends Thread {
+        private final LockManager lm;
+        private final TransactionId tid;
+        private final PageId pid;
+        private final Permissions perm;
+        volatile boolean acquired = false;
+        volatile boolean aborted = false;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    /**
+     * Unit test for shared locks: two readers can hold the same page.
+     */
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.isExclusivelyLocked(p0));
+    }
+
+    /**
+     * Unit test for exclusive locks: a writer blocks a reader until it
+     * releases its locks.
+     */
+    @Test public void exclusiveLockBlocks() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Acquirer a = new Acquirer(lm, tid2, p0, Permissions.READ_ONLY);
+        a.start();
+        a.join(200);
+        assertFalse(a.acquired);
+        lm.releaseAll(tid1);
+        a.join(1000);
+        assertTrue(a.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    /**
+     * Unit test for lock upgrade: a sole reader can upgrade to a writer.
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.isExclusivelyLocked(p0));
+    }
+
+    /**
+     * Unit test for deadlock detection: in a two-transaction cycle the
+     * younger transaction is aborted and the older one proceeds.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+
+        Acquirer older = new Acquirer(lm, tid1, p1, Permissions.READ_WRITE);
+        older.start();
+        older.join(200);
+        assertFalse(older.acquired);
+
+        Acquirer younger = new Acquirer(lm, tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(1000);
+        assertTrue(younger.aborted);
+
+        lm.releaseAll(tid2);
+        older.join(1000);
+        assertTrue(older.acquired);
+        assertFalse(older.aborted);
+    }
+
+    /**
+     * Unit test for deadlock detection: when the older transaction closes
+     * the cycle, it interrupts the younger one, which is already waiting,
+     * and keeps waiting itself.
+     */
+    @Test public void deadlockInterruptsWaitingVictim() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+
+        Acquirer younger = new Acquirer(lm, tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(200);
+        assertFalse(younger.acquired);
+        assertFalse(younger.aborted);
+
+        Acquirer older = new Acquirer(lm, tid1, p1, Permissions.READ_WRITE);
+        older.start();
+        younger.join(1000);
+        assertTrue(younger.aborted);
+        assertFalse(older.acquired);
+        assertFalse(older.aborted);
+
+        lm.releaseAll(tid2);
+        older.join(1000);
+        assertTrue(older.acquired);
+        assertTrue(lm.holdsLock(tid1, p1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  DbIterator scan;
+  DbIterator ascending;
+  DbIterator descending;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 3, 1,
+                    1, 2,
+                    2, 3,
+                    3, 4,
+                    1, 5,
+                    2, 6 });
+    this.ascending = TestUtil.createTupleList(width,
+        new int[] { 1, 2,
+                    1, 5,
+                    2, 3,
+                    2, 6,
+                    3, 1,
+                    3, 4 });
+    this.descending = TestUtil.createTupleList(width,
+        new int[] { 3, 1,
+                    3, 4,
+                    2, 3,
+                    2, 6,
+                    1, 2,
+                    1, 5 });
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() sorting in memory
+   */
+  @Test public void sortInMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, scan);
+    op.open();
+    ascending.open();
+    TestUtil.compareDbIterators(ascending, op);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() and rewind() with no memory, so that
+   * every tuple is a run of its own and the merge keeps equal keys in their
+   * input order
+   */
+  @Test public void sortExternal() throws Exception {
+    OrderBy op = new OrderBy(0, false, scan, 0);
+    op.open();
+    descending.open();
+    TestUtil.compareDbIterators(descending, op);
+    op.rewind();
+    descending.rewind();
+    TestUtil.compareDbIterators(descending, op);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
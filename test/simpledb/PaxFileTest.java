@@ -0,0 +1,145 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 500;
+
+    private PaxFile pf;
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Writes a PAX file of rows (i, "s" + i, 2 * i) and adds it to the
+     * catalog.
+     */
+    @Before
+    public void setUp() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < ROWS; i++)
+            out.println(i + ",s" + i + "," + (2 * i));
+        out.close();
+        File data = File.createTempFile("pax", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convertPax(text, data, BufferPool.PAGE_SIZE, 3, types, ',');
+
+        td = new TupleDesc(types, new String[] { "a", "b", "c" });
+        pf = new PaxFile(data, td);
+        Database.getCatalog().addTable(pf, "pax");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for reading every tuple of a PaxFile
+     */
+    @Test
+    public void readAll() throws Exception {
+        assertEquals(ROWS / PaxPage.getNumSlots(td, BufferPool.PAGE_SIZE) + 1, pf.numPages());
+        DbFileIterator it = pf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count, t.getInt(0));
+            assertEquals("s" + count, t.getString(1));
+            assertEquals(2 * count, t.getInt(2));
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Unit test for a scan of some columns with a predicate on another
+     */
+    @Test
+    public void projectedScan() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("s7", Type.STRING_LEN));
+        DbFileIterator it = pf.iterator(tid, new Predicate[] { p }, new int[] { 2, 0 });
+        it.open();
+        assertTrue(it.hasNext());
+        Tuple t = it.next();
+        assertEquals(2, t.getTupleDesc().numFields());
+        assertEquals("c", t.getTupleDesc().getFieldName(0));
+        assertEquals(14, t.getInt(0));
+        assertEquals(7, t.getInt(1));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for Project over a SeqScan of a PaxFile
+     */
+    @Test
+    public void projectOverScan() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        Project op = new Project(fields, new Type[] { Type.STRING_TYPE },
+                new SeqScan(tid, pf.getId(), "pax"));
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertEquals("s" + count, t.getString(0));
+            count++;
+        }
+        op.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * Unit test for inserting into and deleting from a PaxPage
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        HeapPageId pid = new HeapPageId(pf.getId(), pf.numPages() - 1);
+        PaxPage page = (PaxPage) pf.readPage(pid);
+        int free = page.getNumEmptySlots();
+        Tuple first = page.getTuple(0);
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(-2));
+        page.insertTuple(t);
+        page.deleteTuple(first);
+        assertEquals(free, page.getNumEmptySlots());
+
+        page = new PaxPage(pid, page.getPageData());
+        assertEquals(free, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(0));
+        Tuple last = null;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            last = it.next();
+        assertEquals(-1, last.getInt(0));
+        assertEquals("new", last.getString(1));
+        assertEquals(-2, last.getInt(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
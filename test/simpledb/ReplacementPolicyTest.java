@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ReplacementPolicyTest {
+
+    private static final ReplacementPolicy.EvictionFilter ANY =
+        new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                return true;
+            }
+        };
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: a referenced page gets a second
+     * chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockReplacementPolicy();
+        p.pageAdded(page(0));
+        p.pageAdded(page(1));
+        p.pageAdded(page(2));
+        // first sweep clears all bits, so page 0 is the first victim
+        assertEquals(page(0), p.chooseVictim(ANY));
+        p.pageRemoved(page(0));
+        p.pageAccessed(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LRUKReplacementPolicy: pages referenced fewer than K times
+     * go before pages with a full history.
+     */
+    @Test public void lruKPrefersColdPages() {
+        ReplacementPolicy p = new LRUKReplacementPolicy();
+        p.pageAdded(page(0));
+        p.pageAccessed(page(0));
+        p.pageAdded(page(1));
+        p.pageAdded(page(2));
+        assertEquals(page(1), p.chooseVictim(ANY));
+        p.pageRemoved(page(1));
+        assertEquals(page(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQReplacementPolicy: a page seen again after leaving
+     * A1in is promoted and survives a scan.
+     */
+    @Test public void twoQIsScanResistant() {
+        ReplacementPolicy p = new TwoQReplacementPolicy();
+        p.pageAdded(page(0));
+        p.pageRemoved(page(0));
+        p.pageAdded(page(0));   // promoted to Am
+        for (int i = 1; i < 10; i++) {
+            p.pageAdded(page(i));
+        }
+        // A1in is only trimmed down to its share of the pool
+        for (int i = 1; i < 9; i++) {
+            PageId victim = p.chooseVictim(ANY);
+            assertFalse(page(0).equals(victim));
+            p.pageRemoved(victim);
+        }
+    }
+
+    /**
+     * Unit test for pagePrefetched: the first access to a prefetched page
+     * does not warm it, so scan pages go before a hot page.
+     */
+    @Test public void prefetchedPagesStayCold() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new ClockReplacementPolicy(), new LRUKReplacementPolicy(),
+            new TwoQReplacementPolicy() };
+        for (ReplacementPolicy p : policies) {
+            p.pageAdded(page(0));
+            p.pageRemoved(page(0));
+            p.pageAdded(page(0));
+            p.pageAccessed(page(0));
+            p.pagePrefetched(page(1));
+            p.pagePrefetched(page(2));
+            p.pageAccessed(page(1));
+            p.pageAccessed(page(2));
+            assertEquals(page(1), p.chooseVictim(ANY));
+        }
+    }
+
+    /**
+     * Unit test for the eviction filter: pages rejected by the filter are
+     * never returned.
+     */
+    @Test public void filterIsHonoured() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new ClockReplacementPolicy(), new LRUKReplacementPolicy(),
+            new TwoQReplacementPolicy() };
+        ReplacementPolicy.EvictionFilter none = new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        };
+        for (ReplacementPolicy p : policies) {
+            p.pageAdded(page(0));
+            p.pageAdded(page(1));
+            assertNull(p.chooseVictim(none));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
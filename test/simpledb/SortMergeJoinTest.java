@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+  DbIterator ltJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 5, 6 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 3, 4, 1, 2, 3,
+                    3, 4, 2, 3, 4,
+                    3, 5, 1, 2, 3,
+                    3, 5, 2, 3, 4,
+                    7, 8, 1, 2, 3,
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 3, 5, 6,
+                    7, 8, 5, 6, 7 });
+    this.ltJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 2, 3, 4,
+                    1, 2, 3, 4, 5,
+                    1, 2, 3, 5, 6,
+                    1, 2, 5, 6, 7,
+                    3, 4, 5, 6, 7,
+                    3, 5, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate, with runs of
+   * duplicate keys on both sides
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &lt; predicate
+   */
+  @Test public void ltJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    ltJoin.open();
+    TestUtil.matchAllTuples(ltJoin, op);
+  }
+
+  /**
+   * Unit test for JoinOptimizer choosing a SortMergeJoin by its cost
+   */
+  @Test public void chosenByCost() throws Exception {
+    TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { "t1.a" });
+    TupleDesc td2 = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { "t2.a" });
+    LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "t1.a", "t2.a",
+        Predicate.Op.LESS_THAN);
+    DbIterator sorted = new OrderBy(0, true,
+        new TupleIterator(td1, new java.util.ArrayList<Tuple>()));
+    DbIterator plan2 = new TupleIterator(td2, new java.util.ArrayList<Tuple>());
+
+    // a tiny join is cheaper by nested loops than by sorting the other side
+    assertTrue(JoinOptimizer.instantiateJoin(lj, sorted, plan2, 1, 1, 1000, 1000)
+        instanceof BlockNestedLoopJoin);
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, sorted, plan2, 1000, 1000, 1000, 1000);
+    assertTrue(j instanceof SortMergeJoin);
+    assertTrue(((Operator) j).getChildren()[0] == sorted);
+    assertTrue(((Operator) j).getChildren()[1] instanceof OrderBy);
+
+    // the cost model agrees: a merge join of unsorted inputs beats
+    // comparing every pair
+    JoinOptimizer jo = new JoinOptimizer(null, new java.util.Vector<LogicalJoinNode>());
+    assertEquals(JoinOptimizer.sortMergeJoinCost(1000, 1000, 1000, 1000, false, false),
+        jo.estimateJoinCost(lj, 1000, 1000, 1000, 1000), 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
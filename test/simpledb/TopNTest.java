@@ -0,0 +1,65 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int width = 2;
+  DbIterator scan;
+  DbIterator top3;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 3, 1,
+                    1, 2,
+                    2, 3,
+                    3, 4,
+                    1, 5,
+                    2, 6 });
+    this.top3 = TestUtil.createTupleList(width,
+        new int[] { 1, 2,
+                    1, 5,
+                    2, 3 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() and rewind(): the result is the start of
+   * what OrderBy returns, ties included
+   */
+  @Test public void topN() throws Exception {
+    TopN op = new TopN(3, 0, true, scan);
+    op.open();
+    top3.open();
+    TestUtil.compareDbIterators(top3, op);
+    op.rewind();
+    top3.rewind();
+    TestUtil.compareDbIterators(top3, op);
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit larger than the input
+   */
+  @Test public void limitAboveInput() throws Exception {
+    TopN op = new TopN(10, 0, true, scan);
+    op.open();
+    OrderBy all = new OrderBy(0, true, TestUtil.createTupleList(width,
+        new int[] { 3, 1, 1, 2, 2, 3, 3, 4, 1, 5, 2, 6 }));
+    all.open();
+    TestUtil.compareDbIterators(all, op);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for Filter.nextBatch() over more than one batch of input
+   */
+  @Test public void filterBatches() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(2000));
+    Filter op = new Filter(pred, new TestUtil.MockScan(-5, 3000, 3));
+    op.open();
+    int count = 0;
+    TupleBatch b;
+    while ((b = op.nextBatch()) != null) {
+      assertTrue(b.size() > 0);
+      for (int i = 0; i < b.size(); i++) {
+        int r = b.row(i);
+        assertEquals(count - 5, b.getInt(0, r));
+        assertEquals(count - 5, b.getInt(2, r));
+        count++;
+      }
+    }
+    assertEquals(2005, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for Project.nextBatch() over a filtered child
+   */
+  @Test public void projectBatches() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(10));
+    Filter filter = new Filter(pred, new TestUtil.MockScan(0, 20, 2));
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    Project op = new Project(fields, new Type[] { Type.INT_TYPE }, filter);
+    op.open();
+    TupleBatch b = op.nextBatch();
+    assertEquals(9, b.size());
+    for (int i = 0; i < b.size(); i++)
+      assertEquals(new IntField(11 + i), b.getTuple(b.row(i)).getField(0));
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Unit test for Join.nextBatch() with more output rows than fit in a
+   *   batch
+   */
+  @Test public void joinBatches() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    Join op = new Join(pred, new TestUtil.MockScan(0, 60, 1),
+        new TestUtil.MockScan(0, 60, 1));
+    op.open();
+    int count = 0;
+    TupleBatch b;
+    while ((b = op.nextBatch()) != null) {
+      assertTrue(b.size() <= TupleBatch.CAPACITY);
+      for (int i = 0; i < b.size(); i++) {
+        int r = b.row(i);
+        assertTrue(b.getInt(0, r) <= b.getInt(1, r));
+        count++;
+      }
+    }
+    assertEquals(60 * 61 / 2, count);
+
+    op.rewind();
+    assertEquals(TupleBatch.CAPACITY, op.nextBatch().size());
+    op.close();
+  }
+
+  /**
+   * Unit test for Aggregate reading its child a batch at a time
+   */
+  @Test public void aggregateBatches() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(0));
+    Filter filter = new Filter(pred, new TestUtil.MockScan(-100, 2000, 2));
+    Aggregate op = new Aggregate(filter, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    op.open();
+    TupleBatch b = op.nextBatch();
+    assertEquals(1, b.size());
+    assertEquals(1999 * 2000 / 2, b.getInt(0, b.row(0)));
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
@@ -167,6 +167,50 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for TupleDesc.getOffset()
+     */
+    @Test public void getOffset() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(0, td.getOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getOffset(2));
+    }
+
+    /**
+     * Equal TupleDescs hash alike, whatever their field names, and merging
+     * the same pair twice gives back the same TupleDesc.
+     */
+    @Test public void hashAndMergeTwice() {
+        TupleDesc td1 = Utility.getTupleDesc(2, "a");
+        TupleDesc td2 = Utility.getTupleDesc(2, "b");
+        assertEquals(td1.hashCode(), td2.hashCode());
+
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        assertSame(merged, TupleDesc.merge(td1, td2));
+        assertEquals("b1", merged.getFieldName(3));
+        assertEquals(3, merged.fieldNameToIndex("b1"));
+    }
+
+    /**
+     * Merging with other descriptors in between still gives back the
+     * TupleDesc of the first merge of a pair.
+     */
+    @Test public void mergeInterned() {
+        TupleDesc td1 = Utility.getTupleDesc(2, "a");
+        TupleDesc td2 = Utility.getTupleDesc(2, "b");
+        TupleDesc td3 = Utility.getTupleDesc(3, "c");
+
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        TupleDesc other = TupleDesc.merge(td1, td3);
+        assertEquals(5, other.numFields());
+        assertSame(merged, TupleDesc.merge(td1, td2));
+        assertSame(other, TupleDesc.merge(td1, td3));
+        // an equal but distinct descriptor is a different pair
+        TupleDesc copy = Utility.getTupleDesc(2, "d");
+        assertNotSame(merged, TupleDesc.merge(td1, copy));
+    }
+
     /**
      * JUnit suite target
      */
@@ -29,6 +29,25 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the accessors of a compact tuple
+     */
+    @Test public void compactFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+        Tuple tup = Tuple.compact(td);
+        tup.setInt(0, 42);
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+
+        assertEquals(42, tup.getInt(0));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals("abc", tup.getString(1));
+
+        tup.setField(0, new IntField(-7));
+        assertEquals(-7, tup.getInt(0));
+        assertEquals("-7\tabc\n", tup.toString());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -7,16 +7,30 @@ import java.util.Map;
 
 import simpledb.*;
 
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult, 1);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult, int parallelism)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
+        if (parallelism > 1) {
+            // the serial fallback gives the same answer, so check that the
+            // file was split between tasks
+            assertTrue(ag.getParallelTasks() > 1);
+        } else {
+            assertEquals(0, ag.getParallelTasks());
+        }
         Database.getBufferPool().transactionComplete(tid);
     }
 
@@ -75,17 +89,22 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, ROWS, 1);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int rows, int parallelism)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
-                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+                COLUMNS, rows, MAX_VALUE, null, createdTuples);
 
         // Compute the expected answer
         ArrayList<ArrayList<Integer>> expected =
                 aggregate(createdTuples, operation, 1, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        validateAggregate(table, operation, 1, groupColumn, expected, parallelism);
     }
 
     @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
@@ -113,6 +132,17 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testSumParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        // enough pages for several tasks
+        doAggregate(Aggregator.Op.SUM, 0, ROWS * 64, 4);
+    }
+
+    @Test public void testAverageNoGroupParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING, ROWS * 64, 4);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
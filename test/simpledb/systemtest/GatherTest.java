@@ -0,0 +1,177 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class GatherTest extends SimpleDbTestBase {
+    private static final int WORKERS = 4;
+    private static final int MAX_VALUE = 64;
+
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private ArrayList<ArrayList<Integer>> smallTuples;
+    private HeapFile big;
+    private HeapFile small;
+
+    @Before public void setUp() throws Exception {
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        big = SystemTestUtil.createRandomHeapFile(2, 40000, MAX_VALUE, null, bigTuples);
+        assertTrue(big.numPages() > 4 * ParallelSeqScan.MORSEL_PAGES);
+        smallTuples = new ArrayList<ArrayList<Integer>>();
+        small = SystemTestUtil.createRandomHeapFile(2, 100, MAX_VALUE, null, smallTuples);
+    }
+
+    /** @return the tuples of big joined with small on their first fields */
+    private ArrayList<ArrayList<Integer>> expectedJoin() {
+        return equiJoin(bigTuples, smallTuples);
+    }
+
+    /**
+     * @return the tuples of left joined with right on their first fields,
+     *   found through a hash table on right
+     */
+    private static ArrayList<ArrayList<Integer>> equiJoin(
+            ArrayList<ArrayList<Integer>> left, ArrayList<ArrayList<Integer>> right) {
+        Map<Integer, ArrayList<ArrayList<Integer>>> byKey =
+            new java.util.HashMap<Integer, ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> t2 : right) {
+            ArrayList<ArrayList<Integer>> matches = byKey.get(t2.get(0));
+            if (matches == null) {
+                matches = new ArrayList<ArrayList<Integer>>();
+                byKey.put(t2.get(0), matches);
+            }
+            matches.add(t2);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : left) {
+            ArrayList<ArrayList<Integer>> matches = byKey.get(t1.get(0));
+            if (matches == null)
+                continue;
+            for (ArrayList<Integer> t2 : matches) {
+                ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+        return expected;
+    }
+
+    /** Probe a copy of the small table with each worker's morsels. */
+    @Test public void testBroadcastJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        final ParallelSeqScan scan = new ParallelSeqScan(tid, big.getId(), "", WORKERS);
+        final Broadcast build = new Broadcast(new SeqScan(tid, small.getId(), ""));
+        final JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Gather g = new Gather(new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator instantiate(int worker) {
+                return new HashJoin(p, new MorselScan(scan), build.reader());
+            }
+        }, WORKERS, scan, build);
+
+        SystemTestUtil.matchTuples(g, expectedJoin());
+        // a second run hands out the morsels afresh
+        SystemTestUtil.matchTuples(g, expectedJoin());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Join each pair of partitions of the two tables on its own worker. */
+    @Test public void testRepartitionJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        final Repartition left = new Repartition(new SeqScan(tid, big.getId(), ""), 0, WORKERS);
+        final Repartition right = new Repartition(new SeqScan(tid, small.getId(), ""), 0, WORKERS);
+        final JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Gather g = new Gather(new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator instantiate(int worker) {
+                return new HashJoin(p, left.partition(worker), right.partition(worker));
+            }
+        }, WORKERS, left, right);
+
+        SystemTestUtil.matchTuples(g, expectedJoin());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Plan a join of two tables too large to copy to every worker. */
+    @Test public void testPlannedRepartitionJoin() throws Exception {
+        // the scans do not qualify field names with the alias, so the
+        // tables' own field names carry it
+        ArrayList<ArrayList<Integer>> leftTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile left = Utility.openHeapFile(2, "l.c", SystemTestUtil
+                .createRandomHeapFileUnopened(2, 40000, 1 << 16, null, leftTuples));
+        ArrayList<ArrayList<Integer>> rightTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile right = Utility.openHeapFile(2, "r.c", SystemTestUtil
+                .createRandomHeapFileUnopened(2, 40000, 1 << 16, null, rightTuples));
+        ArrayList<ArrayList<Integer>> expected = equiJoin(leftTuples, rightTuples);
+        // the plan projects r.c0 away
+        for (ArrayList<Integer> t : expected)
+            t.remove(2);
+
+        // neither table fits the broadcast budget of the workers
+        Map<String, TableStats> stats = new java.util.HashMap<String, TableStats>();
+        for (HeapFile f : new HeapFile[] { left, right }) {
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), 1000) {
+                        public int estimateTableCardinality(double selectivityFactor) {
+                            return (int) (40000 * selectivityFactor);
+                        }
+                    });
+        }
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(WORKERS);
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        lp.addJoin("l.c0", "r.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("l.c0", null);
+        lp.addProjectField("l.c1", null);
+        lp.addProjectField("r.c1", null);
+        TransactionId tid = new TransactionId();
+        Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+
+        Gather g = (Gather) plan.getChildren()[0];
+        assertEquals(2, g.getInputs().length);
+        assertTrue(g.getInputs()[0] instanceof Repartition);
+        assertTrue(g.getInputs()[1] instanceof Repartition);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Aggregate a parallel scan into one partial aggregate per worker. */
+    @Test public void testAggregateOverParallelScan()
+            throws IOException, DbException, TransactionAbortedException {
+        TreeMap<Integer, Integer> sums = new TreeMap<Integer, Integer>();
+        for (ArrayList<Integer> t : bigTuples) {
+            Integer sum = sums.get(t.get(0));
+            sums.put(t.get(0), (sum == null ? 0 : sum) + t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(e.getKey());
+            row.add(e.getValue());
+            expected.add(row);
+        }
+
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new ParallelSeqScan(tid, big.getId(), "", WORKERS),
+                1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(agg, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ParallelScanTest extends FilterBase {
+    private static final int WORKERS = 4;
+
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException, IOException {
+        ParallelSeqScan ss = new ParallelSeqScan(tid, table.getId(), "",
+                new Predicate[] { predicate }, WORKERS);
+        ss.open();
+
+        int resultCount = 0;
+        while (ss.hasNext()) {
+            assertTrue(predicate.filter(ss.next()));
+            resultCount += 1;
+        }
+
+        ss.close();
+        return resultCount;
+    }
+
+    /** Scan a table of many morsels, twice. */
+    @Test public void testManyMorsels()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 40000, null, tuples);
+        assertTrue(f.numPages() > 4 * ParallelSeqScan.MORSEL_PAGES);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan ss = new ParallelSeqScan(tid, f.getId(), "", WORKERS);
+        SystemTestUtil.matchTuples(ss, tuples);
+        ss.open();
+        ss.next();
+        ss.rewind();
+        int count = 0;
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        assertEquals(tuples.size(), count);
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}